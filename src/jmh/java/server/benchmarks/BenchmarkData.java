@@ -0,0 +1,47 @@
+package server.benchmarks;
+
+import commons.elements.OrganizationType;
+import commons.elements.Position;
+import commons.elements.Status;
+import commons.elements.Worker;
+import server.utils.WorkerFactory;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Генерация коллекций для бенчмарков. Значения полей детерминированы зерном генератора,
+ * поэтому прогоны разных версий сравнимы между собой.
+ */
+final class BenchmarkData {
+    private static final Position[] POSITIONS = Position.values();
+    private static final Status[] STATUSES = Status.values();
+    private static final OrganizationType[] ORGANIZATION_TYPES = OrganizationType.values();
+
+    private BenchmarkData() {
+    }
+
+    static Worker worker(Random random, long id) {
+        return worker(random, id, 1 + random.nextInt(100000));
+    }
+
+    static Worker worker(Random random, long id, int salary) {
+        return WorkerFactory.create(id, "Worker" + id, random.nextInt(1000), random.nextInt(1000),
+                salary, LocalDate.of(2021, 1, 1).plusDays(random.nextInt(3650)),
+                ZonedDateTime.of(2021, 6, 9, 21, 50, 54, 0, ZoneOffset.UTC),
+                POSITIONS[random.nextInt(POSITIONS.length)], STATUSES[random.nextInt(STATUSES.length)],
+                "Organization" + random.nextInt(1000), ORGANIZATION_TYPES[random.nextInt(ORGANIZATION_TYPES.length)],
+                random.nextInt(1000000), "Street" + random.nextInt(100), String.valueOf(100000 + random.nextInt(900000)));
+    }
+
+    static HashSet<Worker> workers(int size, long seed) {
+        Random random = new Random(seed);
+        HashSet<Worker> workers = new HashSet<>(size * 2);
+        for (long id = 1; id <= size; id++)
+            workers.add(worker(random, id));
+        return workers;
+    }
+}
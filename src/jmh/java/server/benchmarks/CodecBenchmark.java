@@ -0,0 +1,94 @@
+package server.benchmarks;
+
+import commons.network.Request;
+import commons.network.Response;
+import commons.network.ResponseCode;
+import commons.utils.SerializationTool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.network.PooledBuffer;
+import server.network.codec.Codecs;
+import server.utils.CommonsObjects;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарки кодирования запросов и ответов: SerializationTool в обе стороны
+ * и кодеки ответов сервера для ответов с 0, 100 и 10 тыс. объектов.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"0", "100", "10000"})
+    public int workers;
+
+    private final SerializationTool serializationTool = new SerializationTool();
+    private Request request;
+    private byte[] serializedRequest;
+    private Response response;
+    private byte[] serializedResponse;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        request = CommonsObjects.request("add", null, BenchmarkData.worker(random, 1), CommonsObjects.user("benchmark", "password"));
+        serializedRequest = SerializationTool.serializeObject(request);
+        response = new Response();
+        response.setResponseCode(ResponseCode.OK);
+        response.setResponseBody("Command executed");
+        response.setWorkers(BenchmarkData.workers(workers, 42));
+        serializedResponse = SerializationTool.serializeObject(response);
+    }
+
+    @Benchmark
+    public Object requestRoundTrip() {
+        return serializationTool.deserializeObject(SerializationTool.serializeObject(request));
+    }
+
+    @Benchmark
+    public Object requestDecode() throws IOException {
+        return Codecs.JAVA.decodeRequest(ByteBuffer.wrap(serializedRequest));
+    }
+
+    @Benchmark
+    public Object responseRoundTrip() {
+        return serializationTool.deserializeObject(SerializationTool.serializeObject(response));
+    }
+
+    @Benchmark
+    public Object responseDeserialize() {
+        return serializationTool.deserializeObject(serializedResponse);
+    }
+
+    @Benchmark
+    public int responseEncodeJava() throws IOException {
+        return encode(Codecs.JAVA.encodeResponse(response));
+    }
+
+    @Benchmark
+    public int responseEncodeBinary() throws IOException {
+        return encode(Codecs.BINARY.encodeResponse(response));
+    }
+
+    private static int encode(PooledBuffer encoded) {
+        int size = encoded.buffer().remaining();
+        encoded.release();
+        return size;
+    }
+}
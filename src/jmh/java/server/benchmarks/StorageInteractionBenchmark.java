@@ -0,0 +1,146 @@
+package server.benchmarks;
+
+import commons.elements.Status;
+import commons.elements.Worker;
+import commons.utils.Storage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.interaction.StorageInteraction;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарки команд над коллекцией из 1 тыс., 100 тыс. и 1 млн объектов.
+ * Изменяющие команды подобраны так, чтобы размер коллекции между вызовами не менялся:
+ * add и remove_by_id измеряются парой с обратной операцией, add_if_min и remove_greater
+ * получают объект, который не проходит сравнение.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class StorageInteractionBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private StorageInteraction storage;
+    private Random random;
+    private Path snapshotFile;
+    private Worker greatest;
+    private Worker expensive;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        snapshotFile = Files.createTempFile("benchmark", ".csv");
+        System.setProperty("server.snapshot.file", snapshotFile.toString());
+        storage = new StorageInteraction(new Storage());
+        storage.addAll(BenchmarkData.workers(size, 42));
+        random = new Random(7);
+        greatest = BenchmarkData.worker(random, Long.MAX_VALUE, Integer.MAX_VALUE);
+        expensive = BenchmarkData.worker(random, Long.MAX_VALUE - 1, Integer.MAX_VALUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        Files.deleteIfExists(snapshotFile);
+    }
+
+    private long existingId() {
+        return 1 + random.nextInt(size);
+    }
+
+    /**
+     * Добавление объекта и удаление его же, чтобы размер коллекции не рос.
+     */
+    @Benchmark
+    public long addThenRemove() {
+        Worker worker = BenchmarkData.worker(random, 0);
+        storage.add(worker);
+        storage.removeById(worker.getId());
+        return worker.getId();
+    }
+
+    @Benchmark
+    public void update() {
+        long id = existingId();
+        storage.update(id, BenchmarkData.worker(random, id));
+    }
+
+    /**
+     * Удаление объекта по ID и возврат его обратно командой update.
+     */
+    @Benchmark
+    public void removeByIdThenRestore() {
+        long id = existingId();
+        storage.removeById(id);
+        storage.update(id, BenchmarkData.worker(random, id));
+    }
+
+    @Benchmark
+    public void addIfMin() {
+        storage.addIfMin(expensive);
+    }
+
+    @Benchmark
+    public List<Long> removeGreater() {
+        return storage.removeGreater(greatest);
+    }
+
+    @Benchmark
+    public long countByStatus() {
+        return storage.countByStatus(Status.values()[random.nextInt(Status.values().length)]);
+    }
+
+    @Benchmark
+    public List<String> printUniqueOrganization() {
+        return storage.printUniqueOrganization();
+    }
+
+    /**
+     * Команда show сразу после изменения коллекции, когда кеш отображений пуст.
+     */
+    @Benchmark
+    public String showAfterUpdate() {
+        update();
+        return storage.show();
+    }
+
+    /**
+     * Повторная команда show той же версии коллекции.
+     */
+    @Benchmark
+    public String showCached() {
+        return storage.show();
+    }
+
+    /**
+     * Сохранение снимка коллекции после изменения.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10)
+    public boolean save() {
+        update();
+        return storage.getSnapshotWriter().saveNow();
+    }
+}
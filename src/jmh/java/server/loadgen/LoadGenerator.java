@@ -0,0 +1,453 @@
+package server.loadgen;
+
+import commons.elements.OrganizationType;
+import commons.elements.Position;
+import commons.elements.Status;
+import commons.elements.Worker;
+import commons.network.Response;
+import commons.network.ResponseCode;
+import server.metrics.Histogram;
+import server.network.BufferPool;
+import server.network.DatagramReceiver;
+import server.network.Frame;
+import server.network.PooledBuffer;
+import server.network.ReliableChannel;
+import server.network.codec.Codecs;
+import server.network.codec.MessageCodec;
+import server.utils.WorkerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Генератор нагрузки на сервер по надежному протоколу ({@link ReliableChannel}), как у клиентов
+ * текущей версии: ответы уходят без задержки, которую сервер делает для клиентов старой версии.
+ * Каждый пользователь работает через свой канал, входит в систему, получает токен сессии
+ * и передает его в следующих запросах, выполняя команды в заданной пропорции.
+ * Запросы планируются с постоянной общей частотой независимо от ответов;
+ * если предыдущий запрос пользователя еще не завершен, следующий ждет в очереди, а задержка
+ * отсчитывается от запланированного момента, так что очередь на сервере видна в процентилях.
+ * <p>
+ * Ответ не содержит номера запроса, но сервер отвечает на запросы одного клиента по одному
+ * в порядке поступления, поэтому ответ сопоставляется с самым старым запросом пользователя
+ * без ответа. Ответ на запрос, время ожидания которого уже истекло, считается опоздавшим.
+ * <p>
+ * Генератор лежит вместе с бенчмарками и собирается профилем bench:
+ * <pre>
+ * mvn -P bench compile exec:java -Dexec.mainClass=server.loadgen.LoadGenerator -Dexec.args="--host=localhost
+ *      --port=7855 --users=50 --rate=500 --duration=60 --timeout=2000 --register=true --codec=binary
+ *      --mix=show:50,add:10,update:10,remove_by_id:5,count_by_status:10,info:15"
+ * </pre>
+ */
+public final class LoadGenerator {
+    private static final Position[] POSITIONS = Position.values();
+    private static final Status[] STATUSES = Status.values();
+    private static final OrganizationType[] ORGANIZATION_TYPES = OrganizationType.values();
+
+    /**
+     * Виртуальный пользователь со своим каналом и очередью запланированных запросов.
+     */
+    private final class Session {
+        private final DatagramChannel channel;
+        private final ReliableChannel reliableChannel;
+        private final String login;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<Long> planned = new ArrayDeque<>();
+        /**
+         * Отправленные запросы без ответа в порядке отправки: номер запроса и момент отправки.
+         */
+        private final ArrayDeque<long[]> unanswered = new ArrayDeque<>();
+        private long lastRequestId;
+        private long currentRequestId;
+        private String command;
+        private String token;
+        private long intendedAt;
+        private long sentAt;
+        private volatile boolean busy;
+        private boolean registerSent;
+
+        private Session(DatagramChannel channel, ReliableChannel reliableChannel, String login) {
+            this.channel = channel;
+            this.reliableChannel = reliableChannel;
+            this.login = login;
+        }
+
+        /**
+         * Планирует запрос на текущий момент и отправляет его, если пользователь свободен.
+         */
+        private void plan(long intended) {
+            lock.lock();
+            try {
+                planned.add(intended);
+                if (!busy)
+                    sendNext();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void sendNext() {
+            Long intended = planned.poll();
+            if (intended == null)
+                return;
+            String next = token != null ? pickCommand() : register && !registerSent ? "register" : "login";
+            registerSent |= next.equals("register");
+            long requestId = ++lastRequestId;
+            try {
+                PooledBuffer message = encode(next, login, token);
+                byte flags = token == null ? codec.getId() : (byte) (codec.getId() | Frame.TOKEN);
+                long now = System.nanoTime();
+                unanswered.add(new long[]{requestId, now});
+                reliableChannel.send(message, server, flags).thenAccept(delivered -> {
+                    if (!delivered)
+                        undelivered(requestId);
+                });
+                command = next;
+                currentRequestId = requestId;
+                intendedAt = intended;
+                sentAt = now;
+                busy = true;
+                sent.increment();
+            } catch (IOException | RuntimeException e) {
+                errors.increment();
+            }
+        }
+
+        /**
+         * Сервер не подтвердил получение запроса: ответа на него не будет, и он не участвует
+         * в сопоставлении ответов. Сам запрос завершится по тайм-ауту.
+         */
+        private void undelivered(long requestId) {
+            lock.lock();
+            try {
+                unanswered.removeIf(request -> request[0] == requestId);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Сопоставляет ответ с самым старым запросом без ответа и завершает текущий запрос,
+         * если ответ относится к нему.
+         *
+         * @param response ответ или null, если ответ не удалось декодировать.
+         */
+        private void answered(Response response) {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                long[] request = unanswered.poll();
+                while (request != null && request[0] != currentRequestId && now - request[1] > staleNanos)
+                    request = unanswered.poll();
+                if (request == null || !busy || request[0] != currentRequestId) {
+                    lateReplies.increment();
+                    return;
+                }
+                busy = false;
+                if (response == null) {
+                    errors.increment();
+                } else {
+                    histogram(command).record(now - intendedAt);
+                    histogram("service").record(now - sentAt);
+                    completed.increment();
+                    if (response.getResponseCode() == ResponseCode.OK) {
+                        if (command.equals("login") || command.equals("register"))
+                            token = lastArgument(response);
+                    } else errors.increment();
+                }
+                sendNext();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Завершает текущий запрос по тайм-ауту; ответ на него, если придет, будет опоздавшим.
+         */
+        private void checkTimeout(long timeoutNanos) {
+            lock.lock();
+            try {
+                if (busy && System.nanoTime() - sentAt > timeoutNanos) {
+                    busy = false;
+                    timeouts.increment();
+                    sendNext();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private int backlog() {
+            lock.lock();
+            try {
+                return planned.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final InetSocketAddress server;
+    private final int users;
+    private final double rate;
+    private final long durationSeconds;
+    private final long timeoutMillis;
+    private final int maxId;
+    private final String login;
+    private final String password;
+    private final boolean register;
+    private final MessageCodec codec;
+    /**
+     * Время, после которого запрос без ответа больше не ждет опоздавшего ответа:
+     * ответы на такие запросы, видимо, потеряны, и сопоставление не должно на них сдвигаться.
+     */
+    private final long staleNanos;
+    private final LinkedHashMap<String, Integer> mix;
+    private final int mixTotal;
+    private final List<Session> sessions = new ArrayList<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder lateReplies = new LongAdder();
+    private volatile boolean running = true;
+
+    private LoadGenerator(Map<String, String> options) {
+        server = new InetSocketAddress(options.getOrDefault("host", "localhost"),
+                Integer.parseInt(options.getOrDefault("port", "7855")));
+        users = Integer.parseInt(options.getOrDefault("users", "10"));
+        rate = Double.parseDouble(options.getOrDefault("rate", "100"));
+        durationSeconds = Long.parseLong(options.getOrDefault("duration", "60"));
+        timeoutMillis = Long.parseLong(options.getOrDefault("timeout", "2000"));
+        maxId = Integer.parseInt(options.getOrDefault("maxId", "1000"));
+        login = options.getOrDefault("login", "load");
+        password = options.getOrDefault("password", "load");
+        register = Boolean.parseBoolean(options.getOrDefault("register", "false"));
+        codec = options.getOrDefault("codec", "binary").equals("java") ? Codecs.JAVA : Codecs.BINARY;
+        staleNanos = TimeUnit.MILLISECONDS.toNanos(10 * timeoutMillis);
+        mix = new LinkedHashMap<>();
+        int total = 0;
+        for (String entry : options.getOrDefault("mix",
+                "show:50,add:10,update:10,remove_by_id:5,count_by_status:10,print_unique_organization:5,info:10")
+                .split(",")) {
+            String[] pair = entry.split(":");
+            int weight = Integer.parseInt(pair[1]);
+            mix.put(pair[0], weight);
+            total += weight;
+        }
+        mixTotal = total;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private void run() throws IOException, InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+        Selector selector = Selector.open();
+        for (int i = 0; i < users; i++) {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(null);
+            Session session = new Session(channel, new ReliableChannel(channel, scheduler), login + i);
+            channel.register(selector, SelectionKey.OP_READ, session);
+            sessions.add(session);
+        }
+        Thread receiver = new Thread(() -> receive(selector), "loadgen-receiver");
+        receiver.start();
+
+        long periodMicros = Math.max(1, (long) (users * 1_000_000L / rate));
+        for (int i = 0; i < users; i++) {
+            Session session = sessions.get(i);
+            scheduler.scheduleAtFixedRate(() -> session.plan(System.nanoTime()),
+                    periodMicros * i / users, periodMicros, TimeUnit.MICROSECONDS);
+        }
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        scheduler.scheduleWithFixedDelay(() -> sessions.forEach(session -> session.checkTimeout(timeoutNanos)),
+                50, 50, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        long[] previous = {0};
+        scheduler.scheduleAtFixedRate(() -> {
+            long done = completed.sum();
+            System.out.printf("t=%ds sent=%d completed/s=%d timeouts=%d errors=%d backlog=%d%n",
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), sent.sum(), done - previous[0],
+                    timeouts.sum(), errors.sum(), backlog());
+            previous[0] = done;
+        }, 1, 1, TimeUnit.SECONDS);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        scheduler.shutdownNow();
+        Thread.sleep(timeoutMillis);
+        running = false;
+        selector.wakeup();
+        receiver.join();
+        report(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void receive(Selector selector) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(DatagramReceiver.MAX_DATAGRAM_SIZE);
+        try {
+            while (running) {
+                selector.select(100);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Session session = (Session) key.attachment();
+                    buffer.clear();
+                    InetSocketAddress address;
+                    while ((address = (InetSocketAddress) session.channel.receive(buffer)) != null) {
+                        buffer.flip();
+                        if (!Frame.isFrame(buffer)) {
+                            errors.increment();
+                            buffer.clear();
+                            continue;
+                        }
+                        PooledBuffer message = session.reliableChannel.receive(buffer, address);
+                        buffer.clear();
+                        if (message != null)
+                            session.answered(decode(message));
+                    }
+                }
+            }
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Декодирует ответ и возвращает буфер сообщения в пул.
+     *
+     * @return Ответ или null, если ответ не удалось декодировать.
+     */
+    private Response decode(PooledBuffer message) {
+        try {
+            return codec.decodeResponse(message.buffer());
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } finally {
+            message.release();
+        }
+    }
+
+    /**
+     * Токен сессии передается последним аргументом тела ответа на login и register.
+     */
+    private static String lastArgument(Response response) {
+        String[] args = response.getResponseBodyArgs();
+        return args == null || args.length == 0 ? null : args[args.length - 1];
+    }
+
+    private int backlog() {
+        int backlog = 0;
+        for (Session session : sessions)
+            backlog += session.backlog();
+        return backlog;
+    }
+
+    private String pickCommand() {
+        int choice = ThreadLocalRandom.current().nextInt(mixTotal);
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            choice -= entry.getValue();
+            if (choice < 0)
+                return entry.getKey();
+        }
+        return "show";
+    }
+
+    private Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Кодирует запрос команды со случайными аргументами; после входа перед запросом идет токен сессии.
+     *
+     * @return Сообщение, подготовленное к чтению; возвращается в пул каналом после доставки.
+     */
+    private PooledBuffer encode(String command, String user, String token) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String argument = null;
+        Worker worker = null;
+        switch (command) {
+            case "add":
+            case "add_if_min":
+            case "remove_greater":
+            case "remove_lower":
+                worker = worker(random);
+                break;
+            case "update":
+                argument = String.valueOf(1 + random.nextInt(maxId));
+                worker = worker(random);
+                break;
+            case "remove_by_id":
+                argument = String.valueOf(1 + random.nextInt(maxId));
+                break;
+            case "count_by_status":
+                argument = STATUSES[random.nextInt(STATUSES.length)].name();
+                break;
+            default:
+                break;
+        }
+        PooledBuffer request = codec.encodeRequest(command, argument, worker, user, password);
+        if (token == null)
+            return request;
+        try {
+            PooledBuffer message = BufferPool.getInstance().acquire(1 + token.length() + request.buffer().remaining());
+            Frame.writeToken(message.buffer(), token);
+            message.buffer().put(request.buffer());
+            message.buffer().flip();
+            return message;
+        } finally {
+            request.release();
+        }
+    }
+
+    private static Worker worker(ThreadLocalRandom random) {
+        return WorkerFactory.create(0, "Load" + random.nextInt(100000), random.nextInt(1000), random.nextInt(1000),
+                1 + random.nextInt(100000), LocalDate.now().plusDays(random.nextInt(365)), ZonedDateTime.now(),
+                POSITIONS[random.nextInt(POSITIONS.length)], STATUSES[random.nextInt(STATUSES.length)],
+                "Organization" + random.nextInt(100), ORGANIZATION_TYPES[random.nextInt(ORGANIZATION_TYPES.length)],
+                random.nextInt(1000000), "Street" + random.nextInt(100), String.valueOf(100000 + random.nextInt(900000)));
+    }
+
+    private void report(long elapsedMillis) {
+        System.out.printf("%nusers=%d target=%.1f req/s elapsed=%d ms%n", users, rate, elapsedMillis);
+        System.out.printf("sent=%d completed=%d throughput=%.1f req/s timeouts=%d errors=%d late=%d lost=%.2f%%%n",
+                sent.sum(), completed.sum(), completed.sum() * 1000.0 / elapsedMillis, timeouts.sum(), errors.sum(),
+                lateReplies.sum(), sent.sum() == 0 ? 0 : 100.0 * timeouts.sum() / sent.sum());
+        System.out.println("latency, ms (from the planned send time; service = from the actual send time)");
+        new TreeMap<>(histograms).forEach((name, histogram) -> System.out.printf(
+                "%-28s count=%-8d p50=%-8.2f p99=%-8.2f p999=%-8.2f max=%.2f%n", name, histogram.getCount(),
+                histogram.percentile(50) / 1e6, histogram.percentile(99) / 1e6, histogram.percentile(99.9) / 1e6,
+                histogram.getMax() / 1e6));
+    }
+}
@@ -3,53 +3,126 @@ package server;
 import commons.app.*;
 import commons.commands.Login;
 import commons.commands.Register;
-import commons.commands.Save;
 import commons.elements.Worker;
 import commons.network.Request;
 import commons.network.Response;
 import commons.network.ResponseCode;
 import commons.network.ResponseData;
-import commons.utils.InteractionInterface;
 import commons.utils.Storage;
+import server.interaction.ChangeLog;
+import server.interaction.CollectionSnapshot;
+import server.interaction.MutationJournal;
 import server.interaction.StorageInteraction;
+import server.interaction.WorkerQuery;
+import server.interaction.WriteBehindStage;
+import server.metrics.Metrics;
+import server.network.DatagramReceiver;
+import server.session.SessionCache;
+import server.utils.CsvCollectionLoader;
+import server.utils.WriteBehindDataBaseCenter;
+import server.utils.RequestExecutors;
+import server.network.BufferPool;
+import server.network.ChangeNotifier;
+import server.network.ClientRegistry;
+import server.network.ClientState;
+import server.network.OrderedDispatcher;
+import server.network.PooledBuffer;
+import server.network.ReceivedRequest;
+import server.network.ReliableChannel;
+import server.network.RequestContext;
+import server.network.codec.Codecs;
+import server.network.codec.MessageCodec;
 import commons.utils.UserInterface;
 import commons.utils.ConnectionSource;
 import commons.utils.DataBaseCenter;
-import commons.utils.SerializationTool;
 
+import javax.management.JMException;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.sql.Connection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Server implements Runnable, ConnectionSource {
     public static final Logger logger = Logger.getLogger(
             Server.class.getName());
+    /**
+     * Служебные команды, которые не выполняются внутри пакета.
+     */
+    private static final Set<String> NOT_BATCHABLE = new HashSet<>(Arrays.asList("batch", "login", "register",
+            "logout", "stats", "subscribe", "heartbeat", "unsubscribe", "query"));
+    /**
+     * Команды подписки: выполняются только с токеном сессии, которому принадлежит подписка.
+     */
+    private static final Set<String> SUBSCRIPTION_COMMANDS = new HashSet<>(Arrays.asList("subscribe", "heartbeat",
+            "unsubscribe"));
     private final DataBaseCenter dataBaseCenter;
+    /**
+     * База данных с отложенной записью изменений, null если изменения пишутся синхронно.
+     */
+    private final WriteBehindDataBaseCenter writeBehind;
     private String[] arguments;
-    private DatagramSocket datagramSocket;
+    private DatagramChannel datagramChannel;
+    private ReliableChannel reliableChannel;
     private final UserInterface userInterface = new UserInterface(new InputStreamReader(System.in),
             new OutputStreamWriter(System.out), true);
     private final int port = 7855;
     private final Storage storage = new Storage();
-    private InteractionInterface interactiveStorage = null;
-    private final ExecutorService fixedThreadPool = Executors.newFixedThreadPool(10);
-    private boolean updateNeed = false;
+    private StorageInteraction interactiveStorage = null;
+    private final ExecutorService requestExecutor = RequestExecutors.create(
+            System.getProperty("server.executor", "fixed"), Integer.getInteger("server.executor.threads", 10));
+    private final OrderedDispatcher dispatcher = new OrderedDispatcher(requestExecutor);
+    private final Semaphore dbPermits = new Semaphore(Integer.getInteger("server.db.maxConcurrent", 10), true);
+    private final ClientRegistry clientRegistry = new ClientRegistry();
+    private final ReentrantLock commandLock = new ReentrantLock();
+    private final Metrics metrics = Metrics.getInstance();
+    private final SessionCache sessions = new SessionCache(Integer.getInteger("server.session.max", 10000),
+            Long.getLong("server.session.ttl", 15 * 60 * 1000));
+    private final int maxBatchCommands = Integer.getInteger("server.batch.maxCommands", 10000);
+    private final long legacyReplyDelay = Long.getLong("server.legacyReplyDelay", 300);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "server-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ChangeNotifier notifier = new ChangeNotifier(this::changeEvent, this::push, scheduler, sessions::isValid,
+            Long.getLong("server.subscription.window", 20), Long.getLong("server.subscription.timeout", 30 * 1000));
 
     public static void main(String[] args) {
         logger.log(Level.INFO, "commons.app.server operation initiated");
-        Server server = new Server(new DataBaseCenter());
+        String writeBehindMode = System.getProperty("server.writeBehind.mode");
+        Server server = new Server(writeBehindMode == null ? new DataBaseCenter() : new WriteBehindDataBaseCenter(
+                WriteBehindStage.Mode.valueOf(writeBehindMode),
+                Integer.getInteger("server.writeBehind.batchSize", 500),
+                Integer.getInteger("server.writeBehind.capacity", 50000),
+                Long.getLong("server.writeBehind.flushInterval", 50),
+                Long.getLong("server.writeBehind.syncTimeout", 10 * 1000)));
         server.setArguments(args);
         server.run();
     }
 
     public Server(DataBaseCenter dbc) {
         this.dataBaseCenter = dbc;
+        this.writeBehind = dbc instanceof WriteBehindDataBaseCenter ? (WriteBehindDataBaseCenter) dbc : null;
     }
 
     public void setArguments(String[] arguments) {
@@ -57,159 +130,110 @@ public class Server implements Runnable, ConnectionSource {
         this.arguments = arguments;
     }
 
-    public Request receive() throws SocketTimeoutException {
-        logger.log(Level.INFO, "Receiving initiated");
-        byte[] receiver = new byte[1000000];
-        DatagramPacket inCommand = new DatagramPacket(receiver, receiver.length);
-        Request request;
+    public void submit(ReceivedRequest received) {
+        InetSocketAddress clientAddress = received.getClientAddress();
+        ClientState clientState = clientRegistry.get(clientAddress);
+        clientState.setReliable(received.isReliable());
+        clientState.setCodec(received.getCodec());
+        RequestContext context = new RequestContext(clientAddress, received.getRequest().getUser(), received.getToken(),
+                clientState);
+        dispatcher.dispatch(clientAddress, () -> processRequest(context, received.getRequest()));
+    }
+
+    public boolean processRequest(RequestContext context, Request request) {
+        long start = System.nanoTime();
+        String commandName = request.getCommandName();
+        metrics.requestStarted();
         try {
-            logger.log(Level.INFO, "Receiving command from client");
-            datagramSocket.receive(inCommand);
-            request = (Request) new SerializationTool().deserializeObject(receiver);
-            InetAddress clientAddress = inCommand.getAddress();
-            CommandCenter.setClientAddress(clientAddress);
-            int clientPort = inCommand.getPort();
-            CommandCenter.setClientPort(clientPort);
-//            System.out.println("received request");
-            return request;
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "An I/O Exception has occurred", e);
-            if (e instanceof SocketTimeoutException)
-                throw new SocketTimeoutException("Timeout!!!");
-            return null;
+            return handleRequest(context, request, commandName);
+        } finally {
+            metrics.requestFinished();
+            metrics.increment("requests");
+            metrics.recordSince("command." + commandName, start);
         }
     }
 
-    public boolean processRequest(Request request) {
+    private boolean handleRequest(RequestContext context, Request request, String commandName) {
         try {
-            String argument;
-            Worker worker;
+            if (commandName.equals("logout")) {
+                send(logout(context, request.getCommandStringArgument()), context);
+                return true;
+            }
+            if (!commandName.equals("login") && !commandName.equals("register")) {
+                SessionCache.Session session = resume(context);
+                if (session == null) {
+                    send(reject(context), context);
+                    return true;
+                }
+                context = new RequestContext(context.getClientAddress(), session.getUser(), context.getToken(),
+                        context.getClientState());
+            }
+            if (commandName.equals("stats")) {
+                send(stats(), context);
+                return true;
+            }
+            if (commandName.equals("query")) {
+                send(query(request.getCommandStringArgument()), context);
+                return true;
+            }
+            if (commandName.equals("save")) {
+                send(save(), context);
+                return true;
+            }
+            if (commandName.equals("batch")) {
+                send(batch(context, request), context);
+                return true;
+            }
+            if (SUBSCRIPTION_COMMANDS.contains(commandName) && context.getToken() == null) {
+                send(message(false, "Subscriptions require a session token"), context);
+                return true;
+            }
+            if (commandName.equals("subscribe")) {
+                send(subscribe(context, request.getCommandStringArgument()), context);
+                return true;
+            }
+            if (commandName.equals("heartbeat")) {
+                boolean subscribed = notifier.heartbeat(context.getClientAddress(), context.getToken());
+                send(message(subscribed, subscribed ? "Subscribed " + notifier.getTimeoutMillis() : "Not subscribed"), context);
+                return true;
+            }
+            if (commandName.equals("unsubscribe")) {
+                boolean unsubscribed = notifier.unsubscribe(context.getClientAddress(), context.getToken());
+                send(message(unsubscribed, unsubscribed ? "Unsubscribed" : "Not subscribed"), context);
+                return true;
+            }
             Command cmd;
-            if (!(request.getCommandName().equals("login") || request.getCommandName().equals("register")))
-                cmd = CommandCenter.getInstance().getCmd(request.getCommandName());
-            else if (request.getCommandName().equals("login")) {
+            if (commandName.equals("login"))
                 cmd = new Login();
-            } else cmd = new Register();
-            cmd.setUser(request.getUser());
+            else if (commandName.equals("register"))
+                cmd = new Register();
+            else cmd = CommandCenter.getInstance().getCmd(commandName);
+            cmd.setUser(context.getUser());
             cmd.setObject((Worker) request.getCommandObjectArgument());
             cmd.setArgument(request.getCommandStringArgument());
-            Response response = new Response();
-            boolean authorisation = false;
-            if (cmd.getClass().toString().contains(".Register")) {
-                authorisation = authoriseUser(cmd.getUser(), "new");
-                if (!authorisation) {
-                    response.setResponseCode(ResponseCode.ERROR);
-                } else response.setResponseCode(ResponseCode.OK);
-                response.setResponseBody(ResponseData.getAndClear());
-                response.setResponseBodyArgs(ResponseData.getArgsAndClear());
-                response.setWorkers(interactiveStorage.getStorage().getCollection());
-                DatagramPacket responseSender = new DatagramPacket(SerializationTool.serializeObject(response),
-                        SerializationTool.serializeObject(response).length, CommandCenter.getClientAddress(), CommandCenter.getClientPort());
-                datagramSocket.send(responseSender);
-                updateNeed = true;
+            if (commandName.equals("show")) {
+                logger.log(Level.FINE, "Update requested");
+                String knownVersion = request.getCommandStringArgument();
+                if (knownVersion != null && knownVersion.matches("-?\\d+"))
+                    send(synchronize(context, Long.parseLong(knownVersion)), context);
+                else send(show(context, cmd), context);
+                return true;
             }
-            if (cmd.getClass().toString().contains(".Login")) {
-                authorisation = authoriseUser(cmd.getUser(), "old");
-                if (!authorisation) {
-                    response.setResponseCode(ResponseCode.ERROR);
-                } else response.setResponseCode(ResponseCode.OK);
-                response.setResponseBody(ResponseData.getAndClear());
-                response.setResponseBodyArgs(ResponseData.getArgsAndClear());
-                response.setWorkers(interactiveStorage.getStorage().getCollection());
-                DatagramPacket responseSender = new DatagramPacket(SerializationTool.serializeObject(response),
-                        SerializationTool.serializeObject(response).length, CommandCenter.getClientAddress(), CommandCenter.getClientPort());
-                datagramSocket.send(responseSender);
-                updateNeed = true;
+            Response response;
+            if (cmd instanceof Register || cmd instanceof Login) {
+                SessionCache.Session session = authenticate(cmd.getUser(), cmd instanceof Register);
+                boolean authorisation = session != null;
+                response = execute(() -> {
+                    CommandCenter.getInstance().executeCommand(userInterface, cmd, authorisation);
+                    return authorisation;
+                }, context);
+                if (session != null)
+                    response.setResponseBodyArgs(withToken(response.getResponseBodyArgs(), session.getToken()));
+                context.getClientState().setSyncedVersion(-1);
             } else {
-                authorisation = true;
-            }
-            if (authorisation && !cmd.getClass().toString().contains(".Login") && !cmd.getClass().toString().contains(".Register")) {
-                if (request.getCommandName().equals("show")) {
-                    logger.log(Level.INFO, "Update requested");
-//                    Command save = new Save();
-//                    save.setUser(cmd.getUser());
-//                    CommandCenter.getInstance().executeCommand(userInterface, save, interactiveStorage);
-                    if (updateNeed) {
-                        try {
-                            logger.log(Level.INFO, "Executing command without arguments");
-                            if (CommandCenter.getInstance().executeCommand(userInterface, cmd, interactiveStorage, dataBaseCenter))
-                                response.setResponseCode(ResponseCode.OK);
-                            else response.setResponseCode(ResponseCode.ERROR);
-                            response.setResponseBody(ResponseData.getAndClear());
-                            response.setResponseBodyArgs(ResponseData.getArgsAndClear());
-                            response.setWorkers(interactiveStorage.getStorage().getCollection());
-                            DatagramPacket datagramPacket = new DatagramPacket(SerializationTool.serializeObject(response),
-                                    SerializationTool.serializeObject(response).length, CommandCenter.getClientAddress(), CommandCenter.getClientPort());
-                            Thread.sleep(300);
-                            datagramSocket.send(datagramPacket);
-                            updateNeed = false;
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    } else {
-                        try {
-                            response.setResponseBody("NotNeeded");
-                            response.setResponseBodyArgs(null);
-                            response.setWorkers(interactiveStorage.getStorage().getCollection());
-                            DatagramPacket datagramPacket = new DatagramPacket(SerializationTool.serializeObject(response),
-                                    SerializationTool.serializeObject(response).length, CommandCenter.getClientAddress(), CommandCenter.getClientPort());
-                            Thread.sleep(300);
-                            datagramSocket.send(datagramPacket);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                } else {
-                    try {
-                        updateNeed = true;
-                        if (cmd.getArgumentAmount() == 0) {
-                            logger.log(Level.INFO, "Executing command without arguments");
-                            if (request.getCommandName().equals("clear"))
-                                updateNeed = true;
-                            if (CommandCenter.getInstance().executeCommand(userInterface, cmd, interactiveStorage, dataBaseCenter))
-                                response.setResponseCode(ResponseCode.OK);
-                            else response.setResponseCode(ResponseCode.ERROR);
-                        }
-                        if (cmd.getArgumentAmount() == 1 && !cmd.getNeedsObject()) {
-                            if (request.getCommandName().equals("remove_by_id"))
-                                updateNeed = true;
-                            logger.log(Level.INFO, "Executing command with a String argument");
-                            argument = cmd.getArgument();
-                            if (CommandCenter.getInstance().executeCommand(userInterface, cmd, argument, interactiveStorage, dataBaseCenter))
-                                response.setResponseCode(ResponseCode.OK);
-                            else response.setResponseCode(ResponseCode.ERROR);
-                        }
-                        if (cmd.getArgumentAmount() == 1 && cmd.getNeedsObject()) {
-                            updateNeed = true;
-                            logger.log(Level.INFO, "Executing command with an object as an argument");
-                            worker = cmd.getObject();
-                            if (CommandCenter.getInstance().executeCommand(userInterface, cmd, interactiveStorage, worker, dataBaseCenter))
-                                response.setResponseCode(ResponseCode.OK);
-                            else response.setResponseCode(ResponseCode.ERROR);
-                        }
-                        if (cmd.getArgumentAmount() == 2 && cmd.getNeedsObject()) {
-                            updateNeed = true;
-                            logger.log(Level.INFO, "Executing command with arguments of various types");
-                            argument = cmd.getArgument();
-                            worker = cmd.getObject();
-                            if (CommandCenter.getInstance().executeCommand(userInterface, cmd, argument, interactiveStorage, worker, dataBaseCenter))
-                                response.setResponseCode(ResponseCode.OK);
-                            else response.setResponseCode(ResponseCode.ERROR);
-                        }
-                        response.setResponseBody(ResponseData.getAndClear());
-                        response.setResponseBodyArgs(ResponseData.getArgsAndClear());
-                        response.setWorkers(interactiveStorage.getStorage().getCollection());
-                        DatagramPacket datagramPacket = new DatagramPacket(SerializationTool.serializeObject(response),
-                                SerializationTool.serializeObject(response).length, CommandCenter.getClientAddress(), CommandCenter.getClientPort());
-                        Thread.sleep(300);
-                        datagramSocket.send(datagramPacket);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
+                response = execute(selectExecution(cmd), context);
             }
+            send(response, context);
             return true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -217,16 +241,380 @@ public class Server implements Runnable, ConnectionSource {
         }
     }
 
+    /**
+     * Выбирает вариант вызова команды по числу и типу ее аргументов.
+     */
+    private BooleanSupplier selectExecution(Command cmd) {
+        if (cmd.getArgumentAmount() == 0) {
+            logger.log(Level.FINE, "Executing command without arguments");
+            return () -> CommandCenter.getInstance().executeCommand(userInterface, cmd, interactiveStorage, dataBaseCenter);
+        }
+        if (cmd.getArgumentAmount() == 1 && !cmd.getNeedsObject()) {
+            logger.log(Level.FINE, "Executing command with a String argument");
+            return () -> CommandCenter.getInstance().executeCommand(userInterface, cmd, cmd.getArgument(), interactiveStorage, dataBaseCenter);
+        }
+        if (cmd.getArgumentAmount() == 1 && cmd.getNeedsObject()) {
+            logger.log(Level.FINE, "Executing command with an object as an argument");
+            return () -> CommandCenter.getInstance().executeCommand(userInterface, cmd, interactiveStorage, cmd.getObject(), dataBaseCenter);
+        }
+        if (cmd.getArgumentAmount() == 2 && cmd.getNeedsObject()) {
+            logger.log(Level.FINE, "Executing command with arguments of various types");
+            return () -> CommandCenter.getInstance().executeCommand(userInterface, cmd, cmd.getArgument(), interactiveStorage, cmd.getObject(), dataBaseCenter);
+        }
+        return null;
+    }
+
+    /**
+     * Выполняет запрос к коллекции (см. {@link WorkerQuery}) без общей блокировки команд.
+     * В ответ вкладываются только объекты страницы. Тело ответа -
+     * "Page &lt;версия&gt; &lt;курсор следующей страницы или -&gt; &lt;ID объектов страницы по порядку через запятую&gt;":
+     * множество объектов в ответе не хранит порядок, и клиент восстанавливает его по списку ID.
+     */
+    private Response query(String text) {
+        WorkerQuery.Page page;
+        try {
+            long start = System.nanoTime();
+            page = interactiveStorage.query(WorkerQuery.parse(text));
+            metrics.recordSince(page.isIndexed() ? "query.index" : "query.scan", start);
+        } catch (IllegalArgumentException e) {
+            return message(false, e.getMessage());
+        }
+        Response response = message(true, "Page " + page.getVersion() + " "
+                + (page.getNextCursor() == null ? "-" : page.getNextCursor()) + " "
+                + page.getWorkers().stream().map(worker -> String.valueOf(worker.getId())).collect(Collectors.joining(",")));
+        response.setWorkers(new HashSet<>(page.getWorkers()));
+        return response;
+    }
+
+    /**
+     * Выполняет пакет команд: объект запроса - список запросов, которые выполняются по порядку
+     * от имени пользователя пакета за один захват блокировок и одно ожидание записи изменений.
+     * С аргументом "atomic" пакет выполняется до первой неудачной команды, после чего все его изменения
+     * отменяются: записи в базу данных копятся в транзакции отложенной записи и отбрасываются, поэтому
+     * без отложенной записи атомарный пакет отклоняется. Тело ответа - строка "Batch &lt;committed|rolled back&gt; &lt;выполнено&gt;/&lt;всего&gt;"
+     * и по строке "&lt;номер&gt; &lt;OK|ERROR&gt; &lt;ответ команды&gt;" на каждую выполненную команду.
+     * Если база данных отклонила изменения пакета или не подтвердила их вовремя, ответ - ERROR с отдельной строкой об этом.
+     */
+    private Response batch(RequestContext context, Request request) {
+        if (!(request.getCommandObjectArgument() instanceof List))
+            return message(false, "Batch requires a list of requests");
+        List<?> requests = (List<?>) request.getCommandObjectArgument();
+        if (requests.size() > maxBatchCommands)
+            return message(false, "Batch is limited to " + maxBatchCommands + " commands");
+        boolean atomic = "atomic".equals(request.getCommandStringArgument());
+        if (atomic && writeBehind == null)
+            return message(false, "Atomic batches require write-behind database writes (server.writeBehind.mode)");
+        metrics.recordSize("batch", requests.size());
+        StringBuilder results = new StringBuilder();
+        int[] executed = new int[1];
+        Response response = new Response();
+        long waitStart = System.nanoTime();
+        commandLock.lock();
+        try {
+            metrics.recordSince("commandLock.wait", waitStart);
+            long start = System.nanoTime();
+            long ticket = 0;
+            boolean success;
+            boolean kept = false;
+            if (writeBehind != null)
+                writeBehind.begin();
+            try {
+                success = interactiveStorage.transaction(() -> {
+                    boolean all = true;
+                    for (Object item : requests) {
+                        boolean done = executeInBatch(context, item, results.append(executed[0]++).append(' '));
+                        all &= done;
+                        if (!done && atomic)
+                            break;
+                    }
+                    return all;
+                }, atomic);
+                kept = success || !atomic;
+            } catch (UncheckedIOException e) {
+                logger.log(Level.SEVERE, "Batch was not persisted", e);
+                return message(false, "Batch was not persisted");
+            } finally {
+                // Изменения в памяти к этому моменту уже отменены, если пакет не сохранен.
+                if (writeBehind != null) {
+                    if (kept)
+                        ticket = writeBehind.commit();
+                    else writeBehind.rollback();
+                }
+            }
+            boolean written = ticket == 0 || writeBehind.awaitWritten(ticket);
+            if (!written)
+                logger.log(Level.WARNING, "Batch changes were rejected by the database or not written in time");
+            metrics.recordSince("execute", start);
+            response.setResponseCode((success || !atomic) && written ? ResponseCode.OK : ResponseCode.ERROR);
+            response.setResponseBody("Batch " + (success || !atomic ? "committed " : "rolled back ")
+                    + executed[0] + "/" + requests.size() + "\n" + results
+                    + (written ? "" : "Database rejected or did not confirm the batch changes\n"));
+            if (context.getClientState().isDeltaSync())
+                response.setWorkers(new HashSet<>());
+            else response.setWorkers(interactiveStorage.snapshot().asSet());
+        } finally {
+            commandLock.unlock();
+        }
+        return response;
+    }
+
+    /**
+     * Выполняет одну команду пакета и дописывает ее результат.
+     *
+     * @return True если команда выполнена успешно.
+     */
+    private boolean executeInBatch(RequestContext context, Object item, StringBuilder results) {
+        boolean success = false;
+        String body;
+        if (!(item instanceof Request)) {
+            body = "Not a request";
+        } else {
+            Request request = (Request) item;
+            String name = request.getCommandName();
+            Command cmd = name == null || NOT_BATCHABLE.contains(name) ? null : CommandCenter.getInstance().getCmd(name);
+            BooleanSupplier execution = null;
+            if (cmd != null && (request.getCommandObjectArgument() == null || request.getCommandObjectArgument() instanceof Worker)) {
+                cmd.setUser(context.getUser());
+                cmd.setObject((Worker) request.getCommandObjectArgument());
+                cmd.setArgument(request.getCommandStringArgument());
+                execution = selectExecution(cmd);
+            }
+            if (execution == null) {
+                body = "Command is not allowed in a batch: " + name;
+            } else {
+                try {
+                    success = execution.getAsBoolean();
+                    body = ResponseData.getAndClear();
+                    String[] args = ResponseData.getArgsAndClear();
+                    if (args != null && args.length > 0)
+                        body += " " + String.join(" ", args);
+                } catch (UncheckedIOException e) {
+                    ResponseData.getAndClear();
+                    ResponseData.getArgsAndClear();
+                    throw e;
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Batch command " + name + " failed", e);
+                    ResponseData.getAndClear();
+                    ResponseData.getArgsAndClear();
+                    body = e.toString();
+                }
+            }
+        }
+        results.append(success ? ResponseCode.OK : ResponseCode.ERROR).append(' ')
+                .append(body == null ? "" : body.replace('\n', ' ')).append('\n');
+        return success;
+    }
+
+    /**
+     * Выполняет команду и собирает ответ под общей блокировкой: ResponseData хранит
+     * результат команды в статическом буфере, общем для всех потоков.
+     * Клиентам, синхронизирующимся по версиям, коллекция в ответ не вкладывается.
+     */
+    private Response execute(BooleanSupplier command, RequestContext context) {
+        Response response = new Response();
+        long waitStart = System.nanoTime();
+        commandLock.lock();
+        try {
+            metrics.recordSince("commandLock.wait", waitStart);
+            String failure = null;
+            if (command != null) {
+                long start = System.nanoTime();
+                boolean success;
+                try {
+                    success = command.getAsBoolean();
+                } catch (UncheckedIOException e) {
+                    logger.log(Level.SEVERE, "Change was not persisted", e);
+                    success = false;
+                    failure = "Change was not persisted";
+                }
+                metrics.recordSince("execute", start);
+                if (success)
+                    response.setResponseCode(ResponseCode.OK);
+                else response.setResponseCode(ResponseCode.ERROR);
+            }
+            response.setResponseBody(ResponseData.getAndClear());
+            response.setResponseBodyArgs(ResponseData.getArgsAndClear());
+            if (failure != null) {
+                response.setResponseBody(failure);
+                response.setResponseBodyArgs(null);
+            }
+            if (context.getClientState().isDeltaSync())
+                response.setWorkers(new HashSet<>());
+            else response.setWorkers(interactiveStorage.snapshot().asSet());
+        } finally {
+            commandLock.unlock();
+        }
+        return response;
+    }
+
+    /**
+     * Обрабатывает команду show клиента старой версии: коллекция отправляется целиком,
+     * если она изменилась с момента последней отправки этому клиенту.
+     * Закодированные ответы одной версии коллекции одинаковы для всех таких клиентов и берутся из кеша.
+     */
+    private PooledBuffer show(RequestContext context, Command cmd) throws IOException {
+        MessageCodec codec = codecOf(context);
+        boolean cacheable = !context.getClientState().isDeltaSync();
+        Response response;
+        long version;
+        String cacheKey;
+        commandLock.lock();
+        try {
+            version = interactiveStorage.getChangeLog().getVersion();
+            boolean updateNeed = context.getClientState().isUpdateNeed(version);
+            cacheKey = (updateNeed ? "show:" : "show-not-needed:") + codec.getId();
+            byte[] cached = cacheable ? interactiveStorage.getRenderCache().getBytes(version, cacheKey) : null;
+            if (cached != null) {
+                context.getClientState().setSyncedVersion(version);
+                return PooledBuffer.wrap(cached);
+            }
+            if (updateNeed) {
+                logger.log(Level.FINE, "Executing command without arguments");
+                response = execute(() -> CommandCenter.getInstance().executeCommand(userInterface, cmd, interactiveStorage, dataBaseCenter), context);
+            } else {
+                response = execute(null, context);
+                response.setResponseBody("NotNeeded");
+                response.setResponseBodyArgs(null);
+            }
+            context.getClientState().setSyncedVersion(version);
+        } finally {
+            commandLock.unlock();
+        }
+        return encode(response, codec, cacheable ? cacheKey : null, version);
+    }
+
+    /**
+     * Обрабатывает команду show с версией коллекции, известной клиенту.
+     * Тело ответа - "NotNeeded &lt;версия&gt;", "Delta &lt;версия&gt; &lt;ID удаленных через запятую&gt;"
+     * с добавленными и измененными объектами или "Snapshot &lt;версия&gt;" со всей коллекцией,
+     * если журнал изменений не хранит нужных версий.
+     */
+    private PooledBuffer synchronize(RequestContext context, long knownVersion) throws IOException {
+        MessageCodec codec = codecOf(context);
+        Response response = new Response();
+        response.setResponseCode(ResponseCode.OK);
+        String cacheKey = null;
+        ChangeLog changeLog = interactiveStorage.getChangeLog();
+        long version = changeLog.getVersion();
+        context.getClientState().setDeltaSync(true);
+        if (knownVersion == version) {
+            response.setResponseBody("NotNeeded " + version);
+            response.setWorkers(new HashSet<>());
+        } else {
+            ChangeLog.Delta delta = changeLog.since(knownVersion);
+            if (delta == null) {
+                CollectionSnapshot snapshot = interactiveStorage.snapshot();
+                version = snapshot.getVersion();
+                cacheKey = "snapshot:" + codec.getId();
+                byte[] cached = interactiveStorage.getRenderCache().getBytes(version, cacheKey);
+                if (cached != null) {
+                    context.getClientState().setSyncedVersion(version);
+                    return PooledBuffer.wrap(cached);
+                }
+                response.setResponseBody("Snapshot " + version);
+                response.setWorkers(snapshot.asSet());
+            } else {
+                version = delta.getVersion();
+                response.setResponseBody("Delta " + version + " " + delta.getRemoved().stream()
+                        .map(String::valueOf).collect(Collectors.joining(",")));
+                response.setWorkers(new HashSet<>(delta.getUpdated()));
+            }
+        }
+        context.getClientState().setSyncedVersion(version);
+        return encode(response, codec, cacheKey, version);
+    }
+
+    /**
+     * Подписывает клиента на рассылку изменений коллекции. Ответ на подписку - такой же, как на команду show
+     * с известной клиенту версией: разница или полный снимок, после чего изменения приходят без запросов.
+     * Подписка доступна только клиентам с надежным протоколом: старые клиенты принимают ответы лишь после запроса.
+     * Подписка принадлежит токену сессии из запроса и снимается при выходе из сессии или ее истечении.
+     */
+    private PooledBuffer subscribe(RequestContext context, String knownVersion) throws IOException {
+        if (!context.getClientState().isReliable())
+            return encode(message(false, "Subscription requires the reliable protocol"), Codecs.JAVA, null, 0);
+        long known = knownVersion != null && knownVersion.matches("-?\\d+") ? Long.parseLong(knownVersion) : -1;
+        PooledBuffer reply = synchronize(context, known);
+        notifier.subscribe(context.getClientAddress(), context.getClientState(), context.getToken(),
+                interactiveStorage.getChangeLog().getVersion());
+        return reply;
+    }
+
+    /**
+     * Строит событие для подписчиков, знающих указанную версию коллекции. Тело события имеет тот же вид,
+     * что и ответ на show с версией: "Delta &lt;версия&gt; &lt;ID удаленных&gt;" или "Snapshot &lt;версия&gt;".
+     */
+    private ChangeNotifier.Event changeEvent(long knownVersion) {
+        Response response = new Response();
+        response.setResponseCode(ResponseCode.OK);
+        ChangeLog.Delta delta = interactiveStorage.getChangeLog().since(knownVersion);
+        if (delta == null) {
+            CollectionSnapshot snapshot = interactiveStorage.snapshot();
+            response.setResponseBody("Snapshot " + snapshot.getVersion());
+            response.setWorkers(snapshot.asSet());
+            return new ChangeNotifier.Event(snapshot.getVersion(), response);
+        }
+        response.setResponseBody("Delta " + delta.getVersion() + " " + delta.getRemoved().stream()
+                .map(String::valueOf).collect(Collectors.joining(",")));
+        response.setWorkers(new HashSet<>(delta.getUpdated()));
+        return new ChangeNotifier.Event(delta.getVersion(), response);
+    }
+
+    /**
+     * Отправляет подписчику событие; один массив байт разделяется всеми подписчиками группы.
+     */
+    private void push(byte[] payload, InetSocketAddress address, ClientState state) {
+        long start = System.nanoTime();
+        reliableChannel.send(PooledBuffer.wrap(payload), address, state.getCodec().getId());
+        metrics.recordSince("send", start);
+    }
+
+    /**
+     * Кодирует ответ и, если указан ключ, запоминает его в кеше для версии коллекции.
+     */
+    private PooledBuffer encode(Response response, MessageCodec codec, String cacheKey, long version) throws IOException {
+        long start = System.nanoTime();
+        PooledBuffer encoded = codec.encodeResponse(response);
+        metrics.recordSince("serialize", start);
+        metrics.recordSize("response", encoded.buffer().remaining());
+        if (cacheKey != null) {
+            ByteBuffer bytes = encoded.buffer().duplicate();
+            byte[] copy = new byte[bytes.remaining()];
+            bytes.get(copy);
+            interactiveStorage.getRenderCache().putBytes(version, cacheKey, copy);
+        }
+        return encoded;
+    }
+
+    private MessageCodec codecOf(RequestContext context) {
+        return context.getClientState().isReliable() ? context.getClientState().getCodec() : Codecs.JAVA;
+    }
+
     @Override
     public void run() {
         logger.log(Level.INFO, "The server is now operational");
         interactiveStorage = new StorageInteraction(storage);
+        boolean warmStart = false;
         try {
             try {
-                logger.log(Level.INFO, "Reading the collection from database");
                 dataBaseCenter.setPassword(arguments[0]);
                 dataBaseCenter.createTable();
-                dataBaseCenter.retrieveCollectionFromDB(interactiveStorage);
+                Path snapshotFile = Paths.get(System.getProperty("server.snapshot.file", "dataFile.csv"));
+                warmStart = Boolean.getBoolean("server.warmStart") && Files.exists(snapshotFile);
+                if (warmStart) {
+                    logger.log(Level.INFO, "Reading the collection from " + snapshotFile);
+                    CsvCollectionLoader.Result result = new CsvCollectionLoader(snapshotFile, ',')
+                            .load(ForkJoinPool.commonPool());
+                    result.getErrors().forEach(error -> logger.log(Level.WARNING, "Skipped " + error));
+                    interactiveStorage.addAll(result.getWorkers());
+                    logger.log(Level.INFO, "Loaded " + result.getWorkers().size() + " of " + result.getLines()
+                            + " lines in " + result.getMillis() + " ms");
+                } else {
+                    logger.log(Level.INFO, "Reading the collection from database");
+                    long start = System.nanoTime();
+                    dataBaseCenter.retrieveCollectionFromDB(interactiveStorage);
+                    metrics.recordSince("db.retrieveCollection", start);
+                }
             } catch (NullPointerException e) {
                 logger.log(Level.SEVERE, "Data is invalid", e);
                 System.exit(-1);
@@ -240,33 +628,62 @@ public class Server implements Runnable, ConnectionSource {
                 logger.log(Level.SEVERE, "Invalid arguments", e);
                 System.exit(-1);
             }
-            datagramSocket = new DatagramSocket(port);
-            userInterface.connectToServer(datagramSocket);
+            datagramChannel = DatagramChannel.open();
+            datagramChannel.bind(new InetSocketAddress(port));
+            userInterface.connectToServer(datagramChannel.socket());
+            reliableChannel = new ReliableChannel(datagramChannel, scheduler);
             logger.log(Level.INFO, "Collection successfully uploaded");
+            // Журнал дополняет только снимок из файла: в коллекции из базы данных его записи уже учтены.
+            int replayed = interactiveStorage.attachJournal(new MutationJournal(
+                    Paths.get(System.getProperty("server.journal.file", "dataFile.journal")),
+                    MutationJournal.FsyncPolicy.valueOf(System.getProperty("server.journal.fsync", "BATCH")),
+                    Long.getLong("server.journal.flushInterval", 10)), warmStart);
+            logger.log(Level.INFO, "Journal entries " + (warmStart ? "replayed: " : "discarded: ") + replayed);
+            interactiveStorage.setChangeListener(notifier::changed);
+            scheduler.scheduleWithFixedDelay(notifier::expire, notifier.getTimeoutMillis(),
+                    notifier.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+            interactiveStorage.getSnapshotWriter().start(Long.getLong("server.snapshot.period", 60 * 1000),
+                    Long.getLong("server.snapshot.dirtyThreshold", 1000), interactiveStorage.getChangeLog()::getVersion);
+            // Коллекция сохраняется только здесь: System.exit в блоке finally тоже запускает этот хук.
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 logger.log(Level.INFO, "Collection saving...");
-                CommandCenter.getInstance().executeServerCommand(new Save(), interactiveStorage);
+                interactiveStorage.close();
+                if (writeBehind != null)
+                    writeBehind.close();
             }));
-            while (true) {
+            try {
+                metrics.registerMBean();
+            } catch (JMException e) {
+                logger.log(Level.WARNING, "Metrics are not available through JMX", e);
+            }
+            Path metricsFile = Paths.get(System.getProperty("server.metrics.file", "metrics.log"));
+            long metricsInterval = Long.getLong("server.metrics.dumpInterval", 60);
+            scheduler.scheduleWithFixedDelay(() -> {
                 try {
-                    datagramSocket.setSoTimeout(600 * 1000);
-                    Request request = fixedThreadPool.submit(this::receive).get();
-                    boolean success = fixedThreadPool.submit(() -> processRequest(request)).get();
+                    metrics.dump(metricsFile);
                 } catch (IOException e) {
-                    if (e instanceof SocketTimeoutException) {
-                        logger.log(Level.SEVERE, "Timeout is reached", e);
-                    } else {
-                        logger.log(Level.SEVERE, "Unexpected issue occured", e);
-                    }
+                    logger.log(Level.WARNING, "Unable to write metrics to " + metricsFile, e);
                 }
-            }
+            }, metricsInterval, metricsInterval, TimeUnit.SECONDS);
+            scheduler.scheduleWithFixedDelay(() -> clientRegistry.evictIdle(TimeUnit.MINUTES.toMillis(30)),
+                    1, 1, TimeUnit.MINUTES);
+            scheduler.scheduleWithFixedDelay(() -> {
+                logger.log(Level.INFO, BufferPool.getInstance().toString());
+                logger.log(Level.INFO, interactiveStorage.getRenderCache().toString());
+                logger.log(Level.INFO, interactiveStorage.getSnapshotWriter().toString());
+                MutationJournal journal = interactiveStorage.getJournal();
+                logger.log(journal.isFailed() ? Level.SEVERE : Level.INFO, journal.toString());
+                logger.log(Level.INFO, sessions.toString());
+                logger.log(Level.INFO, notifier.toString());
+                if (writeBehind != null)
+                    logger.log(Level.INFO, writeBehind.toString());
+            }, 10, 10, TimeUnit.MINUTES);
+            new DatagramReceiver(datagramChannel, this::submit, reliableChannel, 600 * 1000).run();
         } catch (Exception e) {
             e.printStackTrace();
             logger.log(Level.SEVERE, "An Exception has occurred", e);
         } finally {
             try {
-                logger.log(Level.INFO, "Collection saving...");
-                CommandCenter.getInstance().executeServerCommand(new Save(), interactiveStorage);
                 logger.log(Level.INFO, "server shutting down");
                 System.exit(0);
             } catch (Exception e) {
@@ -276,23 +693,159 @@ public class Server implements Runnable, ConnectionSource {
         }
     }
 
-    public boolean authoriseUser(User user, String existence) {
-        if (existence.equals("new")) {
-            if (dataBaseCenter.addUser(user)) {
-                CommandCenter.getInstance().executeCommand(userInterface, new Register(), true);
-                return true;
-            } else {
-                CommandCenter.getInstance().executeCommand(userInterface, new Register(), false);
-                return false;
-            }
-        } else {
-            if (dataBaseCenter.loginUser(user)) {
-                CommandCenter.getInstance().executeCommand(userInterface, new Login(), true);
-                return true;
-            } else {
-                CommandCenter.getInstance().executeCommand(userInterface, new Login(), false);
-                return false;
+    /**
+     * Отправляет ответ клиенту. Клиентам с надежным протоколом ответ уходит сразу,
+     * клиентам старой версии - после задержки, без которой они не успевают начать прием.
+     */
+    private void send(Response response, RequestContext context) throws IOException {
+        send(encode(response, codecOf(context), null, 0), context);
+    }
+
+    /**
+     * Отправляет закодированный ответ и возвращает его буфер в пул.
+     */
+    private void send(PooledBuffer serializedResponse, RequestContext context) {
+        InetSocketAddress clientAddress = context.getClientAddress();
+        if (context.getClientState().isReliable()) {
+            long start = System.nanoTime();
+            reliableChannel.send(serializedResponse, clientAddress, codecOf(context).getId());
+            metrics.recordSince("send", start);
+            return;
+        }
+        scheduler.schedule(() -> {
+            try {
+                long start = System.nanoTime();
+                datagramChannel.send(serializedResponse.buffer(), clientAddress);
+                metrics.recordSince("send", start);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Unable to send a response to " + clientAddress, e);
+            } finally {
+                serializedResponse.release();
             }
+        }, legacyReplyDelay, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean authoriseUser(User user, String existence) {
+        return authenticate(user, existence.equals("new")) != null;
+    }
+
+    /**
+     * Проверяет пользователя: действующая сессия принимается без обращения к базе данных,
+     * иначе пользователь проверяется или регистрируется в базе и для него открывается сессия.
+     * Число одновременных обращений к базе ограничено, чтобы при обработке запросов
+     * на виртуальных потоках не исчерпать соединения.
+     *
+     * @return Сессия пользователя или null, если проверка не пройдена.
+     */
+    private SessionCache.Session authenticate(User user, boolean register) {
+        if (user == null)
+            return null;
+        if (!register) {
+            SessionCache.Session session = sessions.lookup(user);
+            if (session != null)
+                return session;
         }
+        long start = System.nanoTime();
+        try {
+            dbPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        boolean authorised;
+        try {
+            metrics.recordSince("db.wait", start);
+            start = System.nanoTime();
+            authorised = register ? dataBaseCenter.addUser(user) : dataBaseCenter.loginUser(user);
+            metrics.recordSince(register ? "db.addUser" : "db.loginUser", start);
+        } finally {
+            dbPermits.release();
+        }
+        return authorised ? sessions.open(user) : null;
+    }
+
+    /**
+     * Находит сессию запроса. Запрос с токеном, выданным при входе, принимается только с действующим
+     * токеном: пользователь запроса при этом не проверяется, а команды выполняются от имени пользователя сессии.
+     * Запрос без токена (клиент без надежного протокола) проверяется по логину и паролю в самом запросе.
+     * Адрес клиента в проверке не участвует.
+     *
+     * @return Сессия или null, если проверка не пройдена.
+     */
+    private SessionCache.Session resume(RequestContext context) {
+        if (context.getToken() != null)
+            return sessions.lookup(context.getToken());
+        return authenticate(context.getUser(), false);
+    }
+
+    /**
+     * Токен сессии передается клиенту последним аргументом тела ответа на login и register.
+     */
+    private static String[] withToken(String[] args, String token) {
+        String[] result = args == null ? new String[1] : Arrays.copyOf(args, args.length + 1);
+        result[result.length - 1] = token;
+        return result;
+    }
+
+    /**
+     * Закрывает сессию по токену из аргумента команды, иначе по токену запроса,
+     * а если запрос без токена - сессию пользователя запроса, найденную по логину и паролю.
+     * Подписки закрытой сессии снимаются.
+     */
+    private Response logout(RequestContext context, String token) {
+        if (token == null || token.isEmpty())
+            token = context.getToken();
+        if (token == null) {
+            SessionCache.Session session = sessions.lookup(context.getUser());
+            token = session == null ? null : session.getToken();
+        }
+        boolean closed = token != null && sessions.close(token);
+        if (closed)
+            notifier.revoke(token);
+        Response response = new Response();
+        response.setResponseCode(closed ? ResponseCode.OK : ResponseCode.ERROR);
+        response.setResponseBody(closed ? "Logged out" : "Session not found");
+        response.setWorkers(new HashSet<>());
+        return response;
+    }
+
+    /**
+     * Сохраняет коллекцию и отвечает после завершения записи снимка, сообщая ее настоящий результат.
+     */
+    private Response save() {
+        long start = System.nanoTime();
+        boolean saved = interactiveStorage.getSnapshotWriter().requestSave().join();
+        metrics.recordSince("save", start);
+        return message(saved, saved ? "Collection saved" : "Collection was not saved");
+    }
+
+    /**
+     * Формирует ответ на служебную команду stats: отчет по метрикам сервера и состояние журнала изменений,
+     * в том числе его ошибку и число потерянных записей.
+     */
+    private Response stats() {
+        Response response = new Response();
+        response.setResponseCode(ResponseCode.OK);
+        MutationJournal journal = interactiveStorage.getJournal();
+        response.setResponseBody(journal == null ? metrics.getReport() : metrics.getReport() + "\n" + journal);
+        response.setWorkers(new HashSet<>());
+        return response;
+    }
+
+    private Response message(boolean success, String body) {
+        Response response = new Response();
+        response.setResponseCode(success ? ResponseCode.OK : ResponseCode.ERROR);
+        response.setResponseBody(body);
+        response.setWorkers(new HashSet<>());
+        return response;
+    }
+
+    private Response reject(RequestContext context) {
+        logger.log(Level.WARNING, "Unauthorised request from " + context.getClientAddress());
+        Response response = new Response();
+        response.setResponseCode(ResponseCode.ERROR);
+        response.setResponseBody("Authorisation failed");
+        response.setWorkers(new HashSet<>());
+        return response;
     }
 }
@@ -0,0 +1,156 @@
+package server.interaction;
+
+import commons.elements.Worker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Класс-журнал изменений коллекции.
+ * Каждое изменение увеличивает версию коллекции; последние изменения хранятся
+ * в кольцевом буфере ограниченного размера и позволяют выдать клиенту только разницу
+ * между известной ему версией и текущей.
+ */
+public final class ChangeLog {
+    /**
+     * Вид изменения.
+     */
+    public enum Type {
+        ADD, UPDATE, REMOVE
+    }
+
+    private static final class Change {
+        private final Type type;
+        private final long id;
+        private final Worker worker;
+
+        private Change(Type type, long id, Worker worker) {
+            this.type = type;
+            this.id = id;
+            this.worker = worker;
+        }
+    }
+
+    /**
+     * Разница между двумя версиями коллекции.
+     */
+    public static final class Delta {
+        private final long version;
+        private final Collection<Worker> updated;
+        private final Set<Long> removed;
+
+        private Delta(long version, Collection<Worker> updated, Set<Long> removed) {
+            this.version = version;
+            this.updated = updated;
+            this.removed = removed;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return Добавленные и измененные объекты в их последнем состоянии.
+         */
+        public Collection<Worker> getUpdated() {
+            return updated;
+        }
+
+        /**
+         * @return ID удаленных объектов.
+         */
+        public Set<Long> getRemoved() {
+            return removed;
+        }
+    }
+
+    private final Change[] changes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long version = 0;
+    /**
+     * Версия последнего сброса: разницу с более ранними версиями выдать нельзя.
+     */
+    private long resetVersion = 0;
+
+    /**
+     * @param capacity число хранимых последних изменений.
+     */
+    public ChangeLog(int capacity) {
+        changes = new Change[capacity];
+    }
+
+    /**
+     * Метод, записывающий изменение объекта.
+     *
+     * @param type   вид изменения.
+     * @param id     ID объекта.
+     * @param worker новое состояние объекта или null для удаления.
+     * @return Новая версия коллекции.
+     */
+    public long record(Type type, long id, Worker worker) {
+        lock.lock();
+        try {
+            version++;
+            changes[(int) (version % changes.length)] = new Change(type, id, worker);
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Метод, отмечающий изменение всей коллекции сразу (очистка, загрузка).
+     * Клиентам с более ранними версиями потребуется полный снимок.
+     *
+     * @return Новая версия коллекции.
+     */
+    public long reset() {
+        lock.lock();
+        try {
+            resetVersion = ++version;
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Метод, вычисляющий разницу между указанной и текущей версиями.
+     *
+     * @param since версия, известная клиенту.
+     * @return Разница или null, если журнал не хранит изменений с этой версии и нужен полный снимок.
+     */
+    public Delta since(long since) {
+        lock.lock();
+        try {
+            if (since < resetVersion || since > version || version - since > changes.length)
+                return null;
+            Map<Long, Worker> updated = new LinkedHashMap<>();
+            Set<Long> removed = new HashSet<>();
+            for (long v = since + 1; v <= version; v++) {
+                Change change = changes[(int) (v % changes.length)];
+                if (change.type == Type.REMOVE) {
+                    updated.remove(change.id);
+                    removed.add(change.id);
+                } else {
+                    removed.remove(change.id);
+                    updated.put(change.id, change.worker);
+                }
+            }
+            List<Worker> workers = new ArrayList<>(updated.values());
+            return new Delta(version, workers, removed);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package server.interaction;
+
+import commons.elements.Status;
+import commons.elements.Worker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Агрегаты коллекции, обновляемые при каждом изменении: число объектов по статусам
+ * и мультимножество организаций со счетчиками ссылок.
+ */
+final class CollectionAggregates implements StoreListener {
+    private final long[] statusCounts = new long[Status.values().length];
+    private long withoutStatus;
+    private final Map<String, int[]> organizations = new LinkedHashMap<>();
+
+    @Override
+    public void added(Worker worker) {
+        Status status = worker.getStatus();
+        if (status == null)
+            withoutStatus++;
+        else statusCounts[status.ordinal()]++;
+        if (worker.getOrganization() != null)
+            organizations.computeIfAbsent(worker.getOrganization().toString(), organization -> new int[1])[0]++;
+    }
+
+    @Override
+    public void removed(Worker worker) {
+        Status status = worker.getStatus();
+        if (status == null)
+            withoutStatus--;
+        else statusCounts[status.ordinal()]--;
+        if (worker.getOrganization() != null) {
+            String organization = worker.getOrganization().toString();
+            int[] references = organizations.get(organization);
+            if (references != null && --references[0] == 0)
+                organizations.remove(organization);
+        }
+    }
+
+    @Override
+    public void cleared() {
+        Arrays.fill(statusCounts, 0);
+        withoutStatus = 0;
+        organizations.clear();
+    }
+
+    /**
+     * @param status статус; null для объектов без статуса.
+     * @return Число объектов с указанным статусом.
+     */
+    long countByStatus(Status status) {
+        return status == null ? withoutStatus : statusCounts[status.ordinal()];
+    }
+
+    /**
+     * @return Уникальные организации в порядке их первого появления в коллекции.
+     */
+    List<String> uniqueOrganizations() {
+        return new ArrayList<>(organizations.keySet());
+    }
+
+    /**
+     * @return Копия счетчиков по статусам, индексированных порядковым номером статуса.
+     */
+    long[] statusCounts() {
+        return statusCounts.clone();
+    }
+}
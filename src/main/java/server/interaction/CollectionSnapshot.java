@@ -0,0 +1,102 @@
+package server.interaction;
+
+import commons.elements.Status;
+import commons.elements.Worker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Неизменяемый снимок коллекции одной версии.
+ * Читатели работают со снимком без блокировок; производные представления
+ * (упорядоченные списки, множество для ответа) строятся при первом обращении и переиспользуются.
+ */
+public final class CollectionSnapshot {
+    private final long version;
+    private final long journalSequence;
+    private final List<Worker> workers;
+    private final long[] statusCounts;
+    private final long withoutStatus;
+    private final List<String> organizations;
+    private final ConcurrentHashMap<String, List<Worker>> orders = new ConcurrentHashMap<>();
+    private volatile HashSet<Worker> set;
+
+    CollectionSnapshot(long version, long journalSequence, Worker[] workers, long[] statusCounts, long withoutStatus,
+                       List<String> organizations) {
+        this.version = version;
+        this.journalSequence = journalSequence;
+        this.workers = Collections.unmodifiableList(Arrays.asList(workers));
+        this.statusCounts = statusCounts;
+        this.withoutStatus = withoutStatus;
+        this.organizations = Collections.unmodifiableList(organizations);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Номер последней записи журнала изменений, вошедшей в снимок.
+     */
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+
+    public int size() {
+        return workers.size();
+    }
+
+    /**
+     * @return Объекты коллекции в произвольном порядке.
+     */
+    public List<Worker> getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @param status статус; null для объектов без статуса.
+     * @return Число объектов с указанным статусом.
+     */
+    public long countByStatus(Status status) {
+        return status == null ? withoutStatus : statusCounts[status.ordinal()];
+    }
+
+    /**
+     * @return Уникальные организации в порядке их первого появления в коллекции.
+     */
+    public List<String> getOrganizations() {
+        return organizations;
+    }
+
+    /**
+     * Метод, возвращающий объекты снимка в указанном порядке.
+     *
+     * @param name  имя порядка, под которым запоминается результат.
+     * @param order порядок.
+     * @return Упорядоченный неизменяемый список.
+     */
+    public List<Worker> sorted(String name, Comparator<Worker> order) {
+        return orders.computeIfAbsent(name, key -> {
+            List<Worker> sorted = new ArrayList<>(workers);
+            sorted.sort(order);
+            return Collections.unmodifiableList(sorted);
+        });
+    }
+
+    /**
+     * @return Множество объектов снимка для отправки клиентам; его нельзя изменять.
+     */
+    public HashSet<Worker> asSet() {
+        HashSet<Worker> result = set;
+        if (result == null) {
+            result = new HashSet<>(workers);
+            set = result;
+        }
+        return result;
+    }
+}
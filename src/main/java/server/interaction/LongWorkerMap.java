@@ -0,0 +1,125 @@
+package server.interaction;
+
+import commons.elements.Worker;
+
+import java.util.function.Consumer;
+
+/**
+ * Хеш-таблица с открытой адресацией, отображающая примитивные ключи long на объекты коллекции.
+ * Использует линейное пробирование и удаление со сдвигом, поэтому не хранит удаленных ячеек
+ * и не упаковывает ключи в объекты.
+ */
+final class LongWorkerMap {
+    private static final int MIN_CAPACITY = 16;
+    private long[] keys;
+    private Worker[] values;
+    private int mask;
+    private int size;
+
+    LongWorkerMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Worker[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    Worker get(long key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return values[i];
+        }
+        return null;
+    }
+
+    boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return Предыдущее значение по ключу или null.
+     */
+    Worker put(long key, Worker value) {
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                Worker previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > values.length)
+            resize(values.length << 1);
+        return null;
+    }
+
+    /**
+     * @return Удаленное значение или null, если ключа не было.
+     */
+    Worker remove(long key) {
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                break;
+        }
+        Worker removed = values[i];
+        if (removed == null)
+            return null;
+        values[i] = null;
+        size--;
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            boolean shift = j > i ? (home <= i || home > j) : (home <= i && home > j);
+            if (shift) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                values[j] = null;
+                i = j;
+            }
+        }
+        return removed;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Worker[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null)
+                continue;
+            int j = slot(oldKeys[i]);
+            while (values[j] != null)
+                j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+    void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(Consumer<Worker> action) {
+        for (Worker value : values) {
+            if (value != null)
+                action.accept(value);
+        }
+    }
+}
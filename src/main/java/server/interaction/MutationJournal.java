@@ -0,0 +1,486 @@
+package server.interaction;
+
+import commons.elements.Worker;
+import commons.utils.SerializationTool;
+import server.network.codec.WorkerFormat;
+import server.utils.WorkerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал изменений коллекции с упреждающей записью.
+ * Каждое изменение записывается в файл как двоичная запись:
+ * длина (int), вид (byte), порядковый номер (long), ID (long), объект, CRC32 (int).
+ * Объект записывается в формате {@link WorkerFormat}, и тогда у вида установлен бит {@link #BINARY_PAYLOAD};
+ * без этого бита объект сериализован Java (записи прежних версий и библиотеки модели без подходящих конструкторов).
+ * Записи сбрасываются на диск отдельным потоком. В режиме BATCH один сброс покрывает все записи,
+ * накопленные за интервал. В режиме ALWAYS команды выполняются по одной под общей блокировкой команд,
+ * поэтому сброс обычно покрывает записи одной команды или одного пакета команд.
+ * Если запись или сброс завершились ошибкой, журнал отказывает в новых записях, а ожидающие сброса
+ * получают эту ошибку: файл мог остаться с недописанной записью. Записи, которые не попали в файл,
+ * перечисляются в журнале сервера и в {@link #toString()}, чтобы дыра в журнале не осталась незамеченной.
+ * После сохранения снимка коллекции журнал усекается до записей, сделанных позже снимка.
+ */
+public final class MutationJournal implements AutoCloseable {
+    /**
+     * Вид записи журнала.
+     */
+    public enum Type {
+        ADD, UPDATE, REMOVE, CLEAR
+    }
+
+    /**
+     * Когда записи журнала сбрасываются на диск.
+     * ALWAYS - изменение завершается только после сброса его записи,
+     * BATCH - записи сбрасываются не реже интервала сброса,
+     * NONE - записи передаются системе без принудительного сброса.
+     */
+    public enum FsyncPolicy {
+        ALWAYS, BATCH, NONE
+    }
+
+    /**
+     * Запись журнала.
+     */
+    public static final class Entry {
+        private final Type type;
+        private final long sequence;
+        private final long id;
+        private final Worker worker;
+
+        private Entry(Type type, long sequence, long id, Worker worker) {
+            this.type = type;
+            this.sequence = sequence;
+            this.id = id;
+            this.worker = worker;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Worker getWorker() {
+            return worker;
+        }
+    }
+
+    private static final Logger logger = Logger.getLogger(MutationJournal.class.getName());
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 8;
+    private static final int MAX_RECORD = 16 * 1024 * 1024;
+    private static final Type[] TYPES = Type.values();
+    /**
+     * Бит вида записи: объект записан в формате {@link WorkerFormat}.
+     */
+    private static final int BINARY_PAYLOAD = 0x80;
+
+    private final Path path;
+    private final FsyncPolicy policy;
+    private final long flushIntervalMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private Thread flusher;
+    private long nextSequence = 1;
+    private long durableSequence;
+    private long checkpointSequence = -1;
+    private volatile boolean closed;
+    private long validLength = -1;
+    private volatile long flushes;
+    /**
+     * Ошибка записи или сброса; после нее записи больше не принимаются.
+     */
+    private volatile IOException failure;
+    /**
+     * Число записей, которые были приняты, но не попали в файл из-за ошибки.
+     */
+    private long lostRecords;
+
+    /**
+     * @param path                файл журнала.
+     * @param policy              политика сброса на диск.
+     * @param flushIntervalMillis наибольший интервал между сбросами группы записей.
+     */
+    public MutationJournal(Path path, FsyncPolicy policy, long flushIntervalMillis) {
+        this.path = path.toAbsolutePath();
+        this.policy = policy;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Метод, читающий записи журнала. Чтение останавливается на первой поврежденной или
+     * недописанной записи, хвост файла после нее отбрасывается при открытии.
+     *
+     * @return Записи в порядке их добавления.
+     * @throws IOException если файл не читается или целую запись нельзя разобрать.
+     */
+    public List<Entry> read() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.exists(path))
+            return entries;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            SerializationTool serializationTool = new SerializationTool();
+            CRC32 check = new CRC32();
+            validLength = 0;
+            while (data.remaining() >= HEADER_SIZE + 4) {
+                int length = data.getInt();
+                if (length < HEADER_SIZE - 4 || length > MAX_RECORD || data.remaining() < length + 4)
+                    break;
+                byte[] record = new byte[length];
+                data.get(record);
+                check.reset();
+                check.update(record, 0, length);
+                if ((int) check.getValue() != data.getInt())
+                    break;
+                ByteBuffer body = ByteBuffer.wrap(record);
+                int kind = body.get() & 0xFF;
+                int type = kind & ~BINARY_PAYLOAD;
+                if (type >= TYPES.length)
+                    break;
+                long sequence = body.getLong();
+                long id = body.getLong();
+                Worker worker = null;
+                if (body.hasRemaining()) {
+                    if ((kind & BINARY_PAYLOAD) != 0) {
+                        worker = WorkerFormat.decode(body);
+                    } else {
+                        byte[] payload = new byte[body.remaining()];
+                        body.get(payload);
+                        worker = (Worker) serializationTool.deserializeObject(payload);
+                    }
+                }
+                entries.add(new Entry(TYPES[type], sequence, id, worker));
+                nextSequence = Math.max(nextSequence, sequence + 1);
+                validLength = data.position();
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Открывает журнал для записи и запускает поток сброса.
+     * Если журнал еще не читался, он читается, чтобы найти конец последней целой записи.
+     */
+    public void open() throws IOException {
+        if (validLength < 0)
+            read();
+        long valid = Math.max(validLength, 0);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        if (channel.size() > valid)
+            channel.truncate(valid);
+        channel.position(valid);
+        durableSequence = nextSequence - 1;
+        flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Метод, добавляющий запись в журнал. Запись попадает на диск при ближайшем сбросе.
+     *
+     * @param type   вид изменения.
+     * @param id     ID объекта.
+     * @param worker новое состояние объекта или null.
+     * @return Порядковый номер записи.
+     * @throws UncheckedIOException если журнал после ошибки больше не принимает записи.
+     */
+    public long append(Type type, long id, Worker worker) {
+        checkHealthy();
+        boolean binary = worker != null && WorkerFactory.isAvailable();
+        byte[] payload = worker == null ? new byte[0]
+                : binary ? WorkerFormat.encode(worker) : SerializationTool.serializeObject(worker);
+        ByteBuffer record = ByteBuffer.allocate(4 + HEADER_SIZE - 4 + payload.length + 4);
+        lock.lock();
+        try {
+            if (channel == null)
+                return 0;
+            checkHealthy();
+            long sequence = nextSequence++;
+            record.putInt(HEADER_SIZE - 4 + payload.length)
+                    .put((byte) (type.ordinal() | (binary ? BINARY_PAYLOAD : 0)))
+                    .putLong(sequence)
+                    .putLong(id)
+                    .put(payload);
+            crc.reset();
+            crc.update(record.array(), 4, record.position() - 4);
+            record.putInt((int) crc.getValue());
+            record.flip();
+            queue.add(record);
+            if (policy == FsyncPolicy.ALWAYS)
+                appended.signal();
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Проверяет, что журнал принимает записи. Изменение коллекции проверяет это до того, как применяется.
+     *
+     * @throws UncheckedIOException если запись или сброс журнала завершились ошибкой.
+     */
+    public void checkHealthy() {
+        IOException failure = this.failure;
+        if (failure != null)
+            throw new UncheckedIOException("Journal has failed and accepts no changes", failure);
+    }
+
+    /**
+     * @return True если запись или сброс журнала завершились ошибкой.
+     */
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Метод, возвращающий номер последней добавленной записи.
+     *
+     * @return Порядковый номер.
+     */
+    public long lastSequence() {
+        lock.lock();
+        try {
+            return nextSequence - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ждет сброса на диск записи с указанным номером, если этого требует политика сброса.
+     *
+     * @param sequence порядковый номер записи.
+     * @throws UncheckedIOException если запись не попала на диск из-за ошибки журнала.
+     */
+    public void awaitDurable(long sequence) {
+        if (policy != FsyncPolicy.ALWAYS)
+            return;
+        lock.lock();
+        try {
+            appended.signal();
+            while (durableSequence < sequence && failure == null && !closed)
+                flushed.awaitUninterruptibly();
+            if (durableSequence < sequence && failure != null)
+                throw new UncheckedIOException("Journal record " + sequence + " was not written", failure);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Отмечает, что все записи до указанного номера включительно вошли в сохраненный снимок.
+     * Журнал будет усечен при ближайшем сбросе.
+     *
+     * @param sequence номер последней записи, вошедшей в снимок.
+     */
+    public void checkpoint(long sequence) {
+        lock.lock();
+        try {
+            checkpointSequence = Math.max(checkpointSequence, sequence);
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        List<ByteBuffer> batch = new ArrayList<>();
+        while (true) {
+            long sequence;
+            long checkpoint;
+            lock.lock();
+            try {
+                if (checkpointSequence < 0 && !closed && (queue.isEmpty() || policy != FsyncPolicy.ALWAYS))
+                    appended.awaitNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis));
+                if (queue.isEmpty() && checkpointSequence < 0 && closed)
+                    return;
+                batch.addAll(queue);
+                queue.clear();
+                sequence = nextSequence - 1;
+                checkpoint = checkpointSequence;
+                checkpointSequence = -1;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            boolean written = false;
+            try {
+                if (failure == null) {
+                    if (!batch.isEmpty())
+                        write(batch);
+                    written = true;
+                    if (checkpoint >= 0)
+                        truncate(checkpoint);
+                }
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                } finally {
+                    lock.unlock();
+                }
+            }
+            if (!written && !batch.isEmpty())
+                lose(batch, failure);
+            batch.clear();
+            lock.lock();
+            try {
+                if (written)
+                    durableSequence = sequence;
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Учитывает записи, которые не попали в файл: после них в журнале дыра, и восстановление
+     * по журналу потеряет эти изменения, пока не будет сохранен следующий снимок коллекции.
+     */
+    private void lose(List<ByteBuffer> batch, IOException cause) {
+        long first = batch.get(0).getLong(5);
+        long last = batch.get(batch.size() - 1).getLong(5);
+        lock.lock();
+        try {
+            lostRecords += batch.size();
+        } finally {
+            lock.unlock();
+        }
+        logger.log(Level.SEVERE, "Journal failed, records " + first + ".." + last + " are lost and further changes"
+                + " are rejected; save the collection and restart the server with a writable journal", cause);
+    }
+
+    private void write(List<ByteBuffer> batch) throws IOException {
+        buffer.clear();
+        for (ByteBuffer record : batch) {
+            if (record.remaining() > buffer.remaining()) {
+                drain();
+                if (record.remaining() > buffer.capacity()) {
+                    while (record.hasRemaining())
+                        channel.write(record);
+                    continue;
+                }
+            }
+            buffer.put(record);
+        }
+        drain();
+        if (policy != FsyncPolicy.NONE)
+            channel.force(false);
+        flushes = flushes + 1;
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Переписывает журнал, оставляя только записи с номером больше указанного.
+     */
+    private void truncate(long sequence) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(4 + 1 + 8);
+        long position = 0;
+        while (position + header.capacity() <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            header.get();
+            if (header.getLong() > sequence)
+                break;
+            position += 4 + length + 4;
+        }
+        if (position == 0)
+            return;
+        if (position >= size) {
+            channel.truncate(0);
+            channel.position(0);
+        } else {
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.transferTo(position, size - position, out);
+                out.force(false);
+            }
+            channel.close();
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            channel.position(channel.size());
+        }
+        if (policy != FsyncPolicy.NONE)
+            channel.force(true);
+    }
+
+    /**
+     * Сбрасывает оставшиеся записи и закрывает журнал.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (channel == null || closed)
+                return;
+            closed = true;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Journal was not closed", e);
+        }
+    }
+
+    public FsyncPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "MutationJournal{policy=" + policy + ", lastSequence=" + (nextSequence - 1)
+                    + ", durableSequence=" + durableSequence + ", flushes=" + flushes
+                    + (failure == null ? "" : ", FAILED=" + failure + ", lostRecords=" + lostRecords) + "}";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
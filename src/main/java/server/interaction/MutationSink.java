@@ -0,0 +1,35 @@
+package server.interaction;
+
+import commons.app.User;
+import commons.elements.Worker;
+
+/**
+ * Получатель изменений коллекции от {@link WriteBehindStage}.
+ * Каждое изменение применяется отдельно; исключение означает, что изменение не применено
+ * и будет повторено, false - что база данных его отклонила и повторять его не нужно.
+ */
+public interface MutationSink {
+    /**
+     * @return True если объект добавлен.
+     * @throws Exception если изменение не было применено.
+     */
+    boolean add(Worker worker, User user) throws Exception;
+
+    /**
+     * @return True если объект изменен.
+     * @throws Exception если изменение не было применено.
+     */
+    boolean update(long id, Worker worker, User user) throws Exception;
+
+    /**
+     * @return True если объект удален.
+     * @throws Exception если изменение не было применено.
+     */
+    boolean remove(long id, User user) throws Exception;
+
+    /**
+     * @return True если коллекция очищена.
+     * @throws Exception если изменение не было применено.
+     */
+    boolean clear(User user) throws Exception;
+}
@@ -0,0 +1,94 @@
+package server.interaction;
+
+import commons.elements.Worker;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Упорядоченный индекс объектов коллекции. Объекты с равным ключом упорядочиваются по ID,
+ * поэтому индекс хранит все объекты коллекции.
+ */
+final class OrderedIndex implements StoreListener {
+    /**
+     * Порядок по зарплате.
+     */
+    static final Comparator<Worker> BY_SALARY = Comparator.<Worker>comparingDouble(worker -> worker.getSalary())
+            .thenComparingLong(worker -> worker.getId());
+    /**
+     * Естественный порядок объектов коллекции.
+     */
+    static final Comparator<Worker> NATURAL = (first, second) -> {
+        int result = first.compareTo(second);
+        return result != 0 ? result : Long.compare(first.getId(), second.getId());
+    };
+
+    private final TreeSet<Worker> workers;
+
+    OrderedIndex(Comparator<Worker> order) {
+        workers = new TreeSet<>(order);
+    }
+
+    @Override
+    public void added(Worker worker) {
+        workers.add(worker);
+    }
+
+    @Override
+    public void removed(Worker worker) {
+        workers.remove(worker);
+    }
+
+    @Override
+    public void cleared() {
+        workers.clear();
+    }
+
+    /**
+     * @return Первый объект в порядке индекса или null, если коллекция пуста.
+     */
+    Worker first() {
+        return workers.isEmpty() ? null : workers.first();
+    }
+
+    /**
+     * @return Объекты коллекции в порядке индекса.
+     */
+    NavigableSet<Worker> ascending() {
+        return workers;
+    }
+
+    /**
+     * Метод, возвращающий объекты, которые больше указанного в естественном порядке.
+     * Просматривает только объекты из результата.
+     */
+    List<Worker> greaterThan(Worker worker) {
+        List<Worker> result = new ArrayList<>();
+        Iterator<Worker> iterator = workers.descendingIterator();
+        while (iterator.hasNext()) {
+            Worker next = iterator.next();
+            if (next.compareTo(worker) <= 0)
+                break;
+            result.add(next);
+        }
+        return result;
+    }
+
+    /**
+     * Метод, возвращающий объекты, которые меньше указанного в естественном порядке.
+     * Просматривает только объекты из результата.
+     */
+    List<Worker> lessThan(Worker worker) {
+        List<Worker> result = new ArrayList<>();
+        for (Worker next : workers) {
+            if (next.compareTo(worker) >= 0)
+                break;
+            result.add(next);
+        }
+        return result;
+    }
+}
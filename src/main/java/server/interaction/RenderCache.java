@@ -0,0 +1,164 @@
+package server.interaction;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Кеш результатов отображения коллекции: строк и закодированных ответов.
+ * Запись привязана к версии коллекции и считается устаревшей после любого изменения.
+ * Суммарный размер записей ограничен, при превышении вытесняются давно не использованные записи.
+ */
+public final class RenderCache {
+    private static final class Entry {
+        private final long version;
+        private final Object value;
+        private final long weight;
+
+        private Entry(long version, Object value, long weight) {
+            this.version = version;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final long maxWeight;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long weight;
+
+    /**
+     * @param maxWeight наибольший суммарный размер записей в байтах.
+     */
+    public RenderCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Метод, возвращающий строку из кеша или отображающий и запоминающий ее.
+     *
+     * @param version версия коллекции.
+     * @param key     вид отображения.
+     * @param render  отображение коллекции.
+     * @return Строковое представление.
+     */
+    public String getText(long version, String key, Supplier<String> render) {
+        Object cached = lookup(version, key);
+        if (cached != null)
+            return (String) cached;
+        String text = render.get();
+        store(version, key, text, 2L * text.length());
+        return text;
+    }
+
+    /**
+     * Метод, возвращающий закодированный ответ из кеша.
+     *
+     * @param version версия коллекции.
+     * @param key     вид ответа и формат.
+     * @return Закодированный ответ или null; массив нельзя изменять.
+     */
+    public byte[] getBytes(long version, String key) {
+        return (byte[]) lookup(version, key);
+    }
+
+    /**
+     * Метод, запоминающий закодированный ответ.
+     *
+     * @param version версия коллекции, по которой построен ответ.
+     * @param key     вид ответа и формат.
+     * @param bytes   закодированный ответ.
+     */
+    public void putBytes(long version, String key, byte[] bytes) {
+        store(version, key, bytes, bytes.length);
+    }
+
+    private Object lookup(long version, String key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version == version) {
+                hits.increment();
+                return entry.value;
+            }
+            misses.increment();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void store(long version, String key, Object value, long valueWeight) {
+        if (valueWeight > maxWeight)
+            return;
+        lock.lock();
+        try {
+            Entry previous = entries.get(key);
+            if (previous != null && previous.version > version)
+                return;
+            previous = entries.put(key, new Entry(version, value, valueWeight));
+            if (previous != null)
+                weight -= previous.weight;
+            weight += valueWeight;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (weight > maxWeight && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                weight -= eldest.weight;
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Метод, удаляющий записи устаревших версий.
+     *
+     * @param version текущая версия коллекции.
+     */
+    public void invalidateBefore(long version) {
+        lock.lock();
+        try {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next().getValue();
+                if (entry.version < version) {
+                    iterator.remove();
+                    weight -= entry.weight;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "RenderCache{hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions()
+                    + ", entries=" + entries.size() + ", bytes=" + weight + "}";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package server.interaction;
+
+import commons.elements.Worker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Фоновая запись снимка коллекции в CSV-файл.
+ * Снимок пишется во временный файл через большой буфер, сбрасывается на диск и атомарно
+ * заменяет старый файл, поэтому сбой во время записи не оставляет обрезанный файл.
+ * После замены сбрасывается и каталог, чтобы новое имя файла пережило сбой питания раньше,
+ * чем журнал будет усечен по этому снимку.
+ * Запись запускается по запросу, по истечении периода при наличии изменений
+ * или при накоплении заданного числа изменений.
+ */
+public final class SnapshotWriter implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(SnapshotWriter.class.getName());
+    private static final String HEADER = "id,name,x,y,salary,endDate,creationDate,position,status,"
+            + "organization,orgType,annualTurnover,street,postalCode\n";
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int FLUSH_CHARS = 1 << 16;
+
+    private final Supplier<CollectionSnapshot> source;
+    private final Path target;
+    private final Path temp;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ReentrantLock saveLock = new ReentrantLock();
+    private final ReentrantLock pendingLock = new ReentrantLock();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final StringBuilder rows = new StringBuilder(FLUSH_CHARS + 512);
+    private CompletableFuture<Boolean> pending;
+    private volatile LongConsumer checkpointListener = sequence -> {
+    };
+    private volatile long savedVersion = -1;
+    private volatile long lastSaveMillis = System.currentTimeMillis();
+
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastDurationMillis;
+    private volatile long maxDurationMillis;
+    private volatile long lastBytes;
+    private volatile long lastRows;
+
+    /**
+     * @param source источник снимков коллекции.
+     * @param target файл, в который сохраняется коллекция.
+     */
+    public SnapshotWriter(Supplier<CollectionSnapshot> source, Path target) {
+        this.source = source;
+        this.target = target.toAbsolutePath();
+        this.temp = this.target.resolveSibling(this.target.getFileName() + ".tmp");
+    }
+
+    /**
+     * Запускает автоматическое сохранение.
+     *
+     * @param periodMillis   наибольшее время, которое изменения могут оставаться несохраненными,
+     *                       0 - не сохранять по времени.
+     * @param dirtyThreshold число изменений, после которого снимок пишется сразу, 0 - не учитывать.
+     * @param version        источник текущей версии коллекции.
+     */
+    public void start(long periodMillis, long dirtyThreshold, Supplier<Long> version) {
+        long interval = periodMillis > 0 ? Math.min(periodMillis, 1000) : 1000;
+        executor.scheduleWithFixedDelay(() -> {
+            long dirty = version.get() - savedVersion;
+            if (dirty <= 0)
+                return;
+            if ((dirtyThreshold > 0 && dirty >= dirtyThreshold)
+                    || (periodMillis > 0 && System.currentTimeMillis() - lastSaveMillis >= periodMillis))
+                requestSave();
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Задает получателя номера последней записи журнала, вошедшей в сохраненный снимок.
+     *
+     * @param checkpointListener получатель номера записи.
+     */
+    public void setCheckpointListener(LongConsumer checkpointListener) {
+        this.checkpointListener = checkpointListener;
+    }
+
+    /**
+     * Метод, запрашивающий сохранение в фоновом потоке. Запросы, пришедшие до начала записи,
+     * объединяются в одну запись.
+     *
+     * @return Результат записи: true если снимок сохранен.
+     */
+    public CompletableFuture<Boolean> requestSave() {
+        CompletableFuture<Boolean> future;
+        pendingLock.lock();
+        try {
+            if (pending != null)
+                return pending;
+            if (!executor.isShutdown()) {
+                future = new CompletableFuture<>();
+                pending = future;
+                executor.execute(() -> {
+                    pendingLock.lock();
+                    try {
+                        pending = null;
+                    } finally {
+                        pendingLock.unlock();
+                    }
+                    future.complete(saveNow());
+                });
+                return future;
+            }
+        } finally {
+            pendingLock.unlock();
+        }
+        return CompletableFuture.completedFuture(saveNow());
+    }
+
+    /**
+     * Метод, сохраняющий текущий снимок в вызывающем потоке.
+     *
+     * @return True если снимок сохранен.
+     */
+    public boolean saveNow() {
+        saveLock.lock();
+        try {
+            CollectionSnapshot snapshot = source.get();
+            if (snapshot.getVersion() == savedVersion && Files.exists(target))
+                return true;
+            long start = System.nanoTime();
+            long bytes = write(snapshot);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(target.getParent());
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            savedVersion = snapshot.getVersion();
+            lastSaveMillis = System.currentTimeMillis();
+            lastDurationMillis = duration;
+            maxDurationMillis = Math.max(maxDurationMillis, duration);
+            lastBytes = bytes;
+            lastRows = snapshot.size();
+            saves.incrementAndGet();
+            checkpointListener.accept(snapshot.getJournalSequence());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            logger.log(Level.SEVERE, "Collection snapshot was not saved to " + target, e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+            return false;
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    private long write(CollectionSnapshot snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.clear();
+            encoder.reset();
+            rows.setLength(0);
+            rows.append(HEADER);
+            for (Worker w : snapshot.getWorkers()) {
+                rows.append(w.getId()).append(',')
+                        .append(w.getName()).append(',')
+                        .append(w.getCoordinateX()).append(',')
+                        .append(w.getCoordinateY()).append(',')
+                        .append(w.getSalary()).append(',')
+                        .append(w.getEndDateString()).append(',')
+                        .append(w.getCreationDateString()).append(',')
+                        .append(w.getPositionString()).append(',')
+                        .append(w.getStatusString()).append(',')
+                        .append(w.getOrganizationNameString()).append(',')
+                        .append(w.getOrganizationTypeString()).append(',')
+                        .append(w.getAnnualTurnoverString()).append(',')
+                        .append(w.getAddressStreet()).append(',')
+                        .append(w.getAddressZipCode()).append('\n');
+                if (rows.length() >= FLUSH_CHARS)
+                    encode(channel, false);
+            }
+            encode(channel, true);
+            while (encoder.flush(buffer) == CoderResult.OVERFLOW)
+                drain(channel);
+            drain(channel);
+            channel.force(true);
+            return channel.size();
+        }
+    }
+
+    /**
+     * Сбрасывает на диск запись каталога о замененном файле. Платформы, где каталог
+     * нельзя открыть как файл (Windows), пропускаются: там замена файла уже надежна.
+     */
+    private static void syncDirectory(Path directory) throws IOException {
+        if (directory == null)
+            return;
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.log(Level.FINE, "Directory " + directory + " cannot be synced on this platform", e);
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void encode(FileChannel channel, boolean endOfInput) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(rows);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, endOfInput);
+            if (result.isOverflow())
+                drain(channel);
+            else if (result.isError())
+                result.throwException();
+            else break;
+        }
+        rows.delete(0, chars.position());
+    }
+
+    private void drain(FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Останавливает автоматическое сохранение и записывает несохраненные изменения.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        saveNow();
+    }
+
+    public long getSaves() {
+        return saves.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+
+    public long getMaxDurationMillis() {
+        return maxDurationMillis;
+    }
+
+    public long getLastBytes() {
+        return lastBytes;
+    }
+
+    public long getLastRows() {
+        return lastRows;
+    }
+
+    public long getSavedVersion() {
+        return savedVersion;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotWriter{saves=" + getSaves() + ", failures=" + getFailures() + ", lastMillis=" + lastDurationMillis
+                + ", maxMillis=" + maxDurationMillis + ", lastBytes=" + lastBytes + ", lastRows=" + lastRows + "}";
+    }
+}
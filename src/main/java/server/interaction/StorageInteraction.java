@@ -4,31 +4,88 @@ import commons.elements.Status;
 import commons.elements.Worker;
 import commons.utils.InteractionInterface;
 import commons.utils.Storage;
+import server.utils.WorkerFactory;
 
 import javax.naming.LimitExceededException;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.time.ZonedDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collector;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * Класс-реализация взаимодействия с коллекцией.
+ * Изменения выполняются по одному под блокировкой записи. Читатели работают с неизменяемым
+ * снимком коллекции, опубликованным через volatile-ссылку: пока снимок соответствует текущей
+ * версии, чтение не берет блокировок, а во время изменения читатель получает последний снимок.
  */
 public final class StorageInteraction implements InteractionInterface {
+    private static final Logger logger = Logger.getLogger(StorageInteraction.class.getName());
     /**
-     * Статическое поле-хранилище коллекции.
+     * Поле-хранилище коллекции.
      */
-    private static Storage storage;
+    private final Storage storage;
     /**
-     * Статическое поле, содержащее путь к файлу с хранимой коллекцией.
+     * Поле, содержащее путь к файлу с хранимой коллекцией.
      */
-    private static String originPath;
+    private String originPath;
     /**
-     * Статическое поле, содержит разделитель значений в оригинальном файле с коллекцией.
+     * Поле, содержит разделитель значений в оригинальном файле с коллекцией.
      */
-    private static char separator;
+    private char separator;
+    /**
+     * Блокировка записи: изменения коллекции выполняются строго по одному.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    /**
+     * Последний опубликованный снимок коллекции.
+     */
+    private volatile CollectionSnapshot snapshot;
+    /**
+     * Журнал изменений коллекции для выдачи клиентам разницы между версиями.
+     */
+    private final ChangeLog changeLog = new ChangeLog(Integer.getInteger("server.changeLog.capacity", 4096));
+    /**
+     * Хранилище объектов с индексом по ID.
+     */
+    private final WorkerStore store;
+    /**
+     * Кеш отображений коллекции, действительных до ее следующего изменения.
+     */
+    private final RenderCache renderCache = new RenderCache(Long.getLong("server.renderCache.maxBytes", 64L * 1024 * 1024));
+    /**
+     * Фоновая запись снимков коллекции в файл.
+     */
+    private final SnapshotWriter snapshotWriter = new SnapshotWriter(this::snapshot,
+            Paths.get(System.getProperty("server.snapshot.file", "dataFile.csv")));
+    /**
+     * Журнал изменений с упреждающей записью, null если журнал не подключен.
+     */
+    private volatile MutationJournal journal;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /**
+     * Число объектов индекса, копируемых запросом за один захват блокировки.
+     */
+    private static final int QUERY_CHUNK = 256;
+    /**
+     * Размер коллекции, начиная с которого запросы просматривают снимок параллельно.
+     */
+    private final int parallelQueryThreshold = Integer.getInteger("server.query.parallelThreshold", 50000);
+    /**
+     * Получатель номера версии коллекции после каждого завершенного изменения.
+     */
+    private volatile LongConsumer changeListener = version -> {
+    };
 
     /**
      * Стандартный конструктор, задает хранилище, с которым будет работа.
@@ -37,13 +94,154 @@ public final class StorageInteraction implements InteractionInterface {
      * @param originPath путь к данным.
      */
     public StorageInteraction(Storage storage, String originPath, char separator) {
-        StorageInteraction.storage = storage;
-        StorageInteraction.originPath = originPath;
-        StorageInteraction.separator = separator;
+        this(storage);
+        this.originPath = originPath;
+        this.separator = separator;
     }
 
     public StorageInteraction(Storage storage) {
-        StorageInteraction.storage = storage;
+        this.storage = storage;
+        this.store = new WorkerStore(storage.getCollection());
+    }
+
+    /**
+     * Метод, возвращающий снимок текущей версии коллекции. Если коллекция в этот момент изменяется,
+     * возвращается последний опубликованный снимок, чтобы читатель не ждал писателя.
+     *
+     * @return Неизменяемый снимок коллекции.
+     */
+    public CollectionSnapshot snapshot() {
+        CollectionSnapshot current = snapshot;
+        if (current != null && current.getVersion() == changeLog.getVersion())
+            return current;
+        if (current != null) {
+            if (!writeLock.tryLock())
+                return current;
+        } else writeLock.lock();
+        try {
+            current = snapshot;
+            if (current == null || current.getVersion() != changeLog.getVersion()) {
+                CollectionAggregates aggregates = store.aggregates();
+                MutationJournal journal = this.journal;
+                current = new CollectionSnapshot(changeLog.getVersion(), journal == null ? 0 : journal.lastSequence(), storage.getCollection().toArray(new Worker[0]),
+                        aggregates.statusCounts(), aggregates.countByStatus(null), aggregates.uniqueOrganizations());
+                snapshot = current;
+            }
+            return current;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Выполняет изменение коллекции под блокировкой записи. Если подключен журнал, до изменения проверяется,
+     * что он принимает записи, а изменение ведет журнал отмены: если запись в журнал не удалась, изменение
+     * отменяется и исключение передается вызывающему. Если журнал требует сброса каждой записи,
+     * сброс ожидается под блокировкой, чтобы читатели не увидели изменение, которое потом будет отменено.
+     * Изменение, вложенное в другое, не ждет записи, не оповещает о себе и отменяется вместе с внешним.
+     */
+    private <T> T write(Supplier<T> mutation) {
+        return write(mutation, null);
+    }
+
+    /**
+     * @param accepted проверка результата внешнего изменения: если результат не принят, изменение отменяется;
+     *                 null если принимается любой результат.
+     */
+    private <T> T write(Supplier<T> mutation, Predicate<? super T> accepted) {
+        MutationJournal journal = this.journal;
+        T result;
+        long version;
+        writeLock.lock();
+        try {
+            if (journal != null)
+                journal.checkHealthy();
+            if (writeLock.getHoldCount() > 1)
+                return mutation.get();
+            long versionBefore = changeLog.getVersion();
+            long before = journal == null ? 0 : journal.lastSequence();
+            boolean undo = journal != null || accepted != null;
+            if (undo)
+                store.beginUndo();
+            boolean applied = false;
+            try {
+                result = mutation.get();
+                if (accepted == null || accepted.test(result)) {
+                    long sequence = journal == null ? 0 : journal.lastSequence();
+                    if (sequence != before)
+                        journal.awaitDurable(sequence);
+                    applied = true;
+                }
+            } finally {
+                if (undo) {
+                    Map<Long, Worker> log = store.endUndo();
+                    if (!applied)
+                        rollback(log);
+                }
+            }
+            version = changeLog.getVersion() == versionBefore ? 0 : changeLog.getVersion();
+        } finally {
+            writeLock.unlock();
+        }
+        if (version != 0)
+            changeListener.accept(version);
+        return result;
+    }
+
+    /**
+     * Выполняет группу изменений за один захват блокировки записи: читатели видят либо состояние до группы,
+     * либо после нее, а ожидание записи в журнал и оповещение об изменении происходят один раз на всю группу.
+     * Если группа выбросила исключение или журнал не принял ее записи, а в атомарном режиме также
+     * если группа вернула false, изменения отменяются по журналу отмены: каждому измененному объекту
+     * возвращается прежнее состояние.
+     *
+     * @param body   группа изменений.
+     * @param atomic true если изменения группы применяются только все вместе.
+     * @return Результат группы.
+     * @throws UncheckedIOException если журнал не принял записи группы; изменения группы при этом отменены.
+     */
+    public boolean transaction(BooleanSupplier body, boolean atomic) {
+        return write(body::getAsBoolean, atomic ? Boolean::booleanValue : null);
+    }
+
+    /**
+     * Возвращает объектам состояние из журнала отмены. Отмена записывается в журнал изменений, только
+     * пока он принимает записи: после ошибки журнала восстановление опирается на следующий снимок коллекции.
+     */
+    private void rollback(Map<Long, Worker> undo) {
+        MutationJournal journal = this.journal;
+        long before = journal == null ? 0 : journal.lastSequence();
+        undo.forEach((id, previous) -> {
+            if (previous == null) {
+                if (store.remove(id) != null)
+                    undone(ChangeLog.Type.REMOVE, id, null);
+            } else {
+                Worker replaced = store.put(previous);
+                undone(replaced == null ? ChangeLog.Type.ADD : ChangeLog.Type.UPDATE, id, previous);
+            }
+        });
+        if (journal != null && journal.lastSequence() != before) {
+            try {
+                journal.awaitDurable(journal.lastSequence());
+            } catch (UncheckedIOException e) {
+                logger.log(Level.SEVERE, "Rollback was not written to the journal", e);
+            }
+        }
+    }
+
+    private void undone(ChangeLog.Type type, long id, Worker worker) {
+        try {
+            record(type, id, worker);
+        } catch (UncheckedIOException e) {
+            // Журнал уже отказал; изменение в памяти отменено, а запись о нем не нужна.
+        }
+    }
+
+    private void write(Runnable mutation) {
+        write(() -> {
+            mutation.run();
+            return null;
+        });
     }
 
     /**
@@ -52,7 +250,7 @@ public final class StorageInteraction implements InteractionInterface {
      * @return информация о коллекции.
      */
     public String info() {
-        return  storage.getInitializationDate() + "\n" + storage.getCollection().getClass() + "\n" + storage.getCollection().size();
+        return  storage.getInitializationDate() + "\n" + storage.getCollection().getClass() + "\n" + snapshot().size();
     }
 
     /**
@@ -61,11 +259,13 @@ public final class StorageInteraction implements InteractionInterface {
      * @return Строковое представление объектов коллекции.
      */
     public String show() {
-        ArrayList<Worker> sortedDisplay = new ArrayList(storage.getCollection());
-        sortedDisplay.sort(Comparator.comparing(Worker::getCoordinatesValue));
-        StringBuilder display = new StringBuilder();
-        sortedDisplay.forEach((worker -> display.append(worker.displayWorker())));
-        return display.toString();
+        CollectionSnapshot current = snapshot();
+        return renderCache.getText(current.getVersion(), "show", () -> {
+            List<Worker> sortedDisplay = current.sorted("coordinates", Comparator.comparing(Worker::getCoordinatesValue));
+            StringBuilder display = new StringBuilder();
+            sortedDisplay.forEach((worker -> display.append(worker.displayWorker())));
+            return display.toString();
+        });
     }
 
     /**
@@ -74,14 +274,17 @@ public final class StorageInteraction implements InteractionInterface {
      * @param worker добавляемый объект.
      */
     public void add(Worker worker) {
-        try {
-            worker = storage.generateId(worker);
-            worker.setCreationDate(ZonedDateTime.now());
-            storage.put(worker);
+        write(() -> {
+            try {
+                worker.setId(store.allocateId());
+                worker.setCreationDate(ZonedDateTime.now());
+                store.put(worker);
+                record(ChangeLog.Type.ADD, worker.getId(), worker);
 //            changesMade = true;
-        } catch (LimitExceededException e) {
-            e.printStackTrace();
-        }
+            } catch (LimitExceededException e) {
+                e.printStackTrace();
+            }
+        });
     }
 
     /**
@@ -91,9 +294,11 @@ public final class StorageInteraction implements InteractionInterface {
      * @param worker новый объект коллекции.
      */
     public void update(long id, Worker worker) {
-        removeById(id);
-        worker.setId(id);
-        storage.put(worker);
+        write(() -> {
+            worker.setId(id);
+            store.put(worker);
+            record(ChangeLog.Type.UPDATE, id, worker);
+        });
     }
 
     /**
@@ -102,57 +307,35 @@ public final class StorageInteraction implements InteractionInterface {
      * @param id ID удаляемого объекта.
      */
     public void removeById(long id) {
-        Worker worker = storage.getCollection().stream()
-                .filter(w -> (id == w.getId()))
-                .findAny()
-                .orElse(null);
-        if (!(worker == null)) {
-            storage.getCollection().remove(worker);
-            storage.getIdList().remove(id);
-        }
+        write(() -> {
+            if (store.remove(id) != null)
+                record(ChangeLog.Type.REMOVE, id, null);
+        });
     }
 
     /**
      * Метод, реализующий команду clear.
      */
     public void clear() {
-        storage.clear();
+        write(() -> {
+            store.clear();
+            storage.getIdList().clear();
+            reset();
+            MutationJournal journal = this.journal;
+            if (journal != null)
+                journal.append(MutationJournal.Type.CLEAR, 0, null);
+        });
     }
 
     /**
-     * Метод, реализующий команду save.
+     * Метод, реализующий команду save. Снимок коллекции записывается в фоновом потоке вместе с другими
+     * запросами сохранения, метод возвращается после завершения записи. Внутри группы изменений
+     * запись только запрашивается: фоновый поток не может дождаться блокировки, которую держит группа.
      */
     public void save() {
-        try {
-            PrintWriter printWriter = new PrintWriter(new FileOutputStream("dataFile.csv"));
-            String keyLine = "id" + "," + "name" + "," + "x" + "," +
-                    "y" + "," + "salary" + "," + "endDate" + "," +
-                    "creationDate" + "," + "position" + "," + "status" + "," +
-                    "organization" + "," + "orgType" + "," + "annualTurnover" + "," +
-                    "street" + "," + "postalCode" + "\n";
-            printWriter.write(keyLine);
-            HashSet<Worker> collection = storage.getCollection();
-            for (Worker w : collection) {
-                printWriter.write(w.getId() + ",");
-                printWriter.write(w.getName() + ",");
-                printWriter.write(w.getCoordinateX() + ",");
-                printWriter.write(w.getCoordinateY() + ",");
-                printWriter.write(w.getSalary() + ",");
-                printWriter.write(w.getEndDateString() + ",");
-                printWriter.write(w.getCreationDateString() + ",");
-                printWriter.write(w.getPositionString() + ",");
-                printWriter.write(w.getStatusString() + ",");
-                printWriter.write(w.getOrganizationNameString() + ",");
-                printWriter.write(w.getOrganizationTypeString() + ",");
-                printWriter.write(w.getAnnualTurnoverString() + ",");
-                printWriter.write(w.getAddressStreet() + ",");
-                printWriter.write(w.getAddressZipCode() + "\n");
-                printWriter.flush();
-            }
-//            changesMade = false;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
+        CompletableFuture<Boolean> saved = snapshotWriter.requestSave();
+        if (!writeLock.isHeldByCurrentThread())
+            saved.join();
     }
 
     /**
@@ -161,19 +344,20 @@ public final class StorageInteraction implements InteractionInterface {
      * @param worker добавляемый объект.
      */
     public void addIfMin(Worker worker) {
-        try {
-            HashSet<Worker> workers = storage.getCollection();
-            List<Worker> toBeSortedWorkers = new ArrayList<>(workers);
-            toBeSortedWorkers.sort(Comparator.comparing(Worker::getSalary));
-            if (worker.getSalary() < toBeSortedWorkers.get(0).getSalary()) {
-                worker = storage.generateId(worker);
-                worker.setCreationDate(ZonedDateTime.now());
-                storage.put(worker);
+        write(() -> {
+            try {
+                Worker minWorker = store.bySalary().first();
+                if (minWorker == null || worker.getSalary() < minWorker.getSalary()) {
+                    worker.setId(store.allocateId());
+                    worker.setCreationDate(ZonedDateTime.now());
+                    store.put(worker);
+                    record(ChangeLog.Type.ADD, worker.getId(), worker);
 //            changesMade = true;
+                }
+            } catch (LimitExceededException e) {
+                e.printStackTrace();
             }
-        } catch (LimitExceededException e) {
-            e.printStackTrace();
-        }
+        });
     }
 
     /**
@@ -182,18 +366,15 @@ public final class StorageInteraction implements InteractionInterface {
      * @param worker объект для сравнения.
      */
     public List<Long> removeGreater(Worker worker) {
-        HashSet<Worker> workers = storage.getCollection();
-        List<Worker> toBeSortedWorkers = new ArrayList<>(workers);
-        List<Long> deletionIds = new ArrayList<>();
-//        List<Worker> toBeRemovedWorkers = new ArrayList<>();
-        toBeSortedWorkers.sort(Comparator.comparing(Worker::getSalary));
-        List<Worker> toBeRemovedWorkers = toBeSortedWorkers.stream().
-                filter(worker1 -> worker1.compareTo(worker) > 0).
-                collect(Collectors.toList());
-        toBeRemovedWorkers.forEach(worker1 -> deletionIds.add(Long.parseLong(String.valueOf(worker1.getId()))));
-        toBeRemovedWorkers.
-                forEach(worker1 -> storage.getCollection().remove(worker1));
-        return deletionIds;
+        return write(() -> {
+            List<Long> deletionIds = new ArrayList<>();
+            List<Worker> toBeRemovedWorkers = store.natural().greaterThan(worker);
+            toBeRemovedWorkers.forEach(worker1 -> deletionIds.add(worker1.getId()));
+            toBeRemovedWorkers.
+                    forEach(worker1 -> store.remove(worker1.getId()));
+            deletionIds.forEach(id -> record(ChangeLog.Type.REMOVE, id, null));
+            return deletionIds;
+        });
     }
 
     /**
@@ -202,17 +383,127 @@ public final class StorageInteraction implements InteractionInterface {
      * @param worker объект для сравнения.
      */
     public List<Long> removeLower(Worker worker) {
-        HashSet<Worker> workers = storage.getCollection();
-        List<Worker> toBeSortedWorkers = new ArrayList<>(workers);
-        List<Long> deletionIds = new ArrayList<>();
-        toBeSortedWorkers.sort(Comparator.comparing(Worker::getSalary));
-        List<Worker> toBeRemovedWorkers = toBeSortedWorkers.stream().
-                filter(worker1 -> worker1.compareTo(worker) < 0).
-                collect(Collectors.toList());
-        toBeRemovedWorkers.forEach(worker1 -> deletionIds.add(Long.parseLong(String.valueOf(worker1.getId()))));
-        toBeRemovedWorkers.
-                forEach(worker1 -> storage.getCollection().remove(worker1));
-        return deletionIds;
+        return write(() -> {
+            List<Long> deletionIds = new ArrayList<>();
+            List<Worker> toBeRemovedWorkers = store.natural().lessThan(worker);
+            toBeRemovedWorkers.forEach(worker1 -> deletionIds.add(worker1.getId()));
+            toBeRemovedWorkers.
+                    forEach(worker1 -> store.remove(worker1.getId()));
+            deletionIds.forEach(id -> record(ChangeLog.Type.REMOVE, id, null));
+            return deletionIds;
+        });
+    }
+
+    /**
+     * Метод, выполняющий запрос к коллекции. Запросы в порядке зарплаты читают индекс по зарплате
+     * (если {@link WorkerFactory} может создать объект для позиции в индексе) с позиции курсора и останавливаются, набрав страницу или выйдя за диапазон зарплат.
+     * Остальные запросы просматривают снимок коллекции, для больших коллекций - параллельно,
+     * сохраняя в каждой части только лучшие объекты в количестве размера страницы.
+     *
+     * @param query запрос.
+     * @return Страница результата.
+     */
+    public WorkerQuery.Page query(WorkerQuery query) {
+        if (query.getSort() == WorkerQuery.Sort.SALARY && WorkerFactory.isAvailable())
+            return queryBySalary(query);
+        CollectionSnapshot current = snapshot();
+        List<Worker> workers = current.getWorkers();
+        Comparator<Worker> order = query.order();
+        int count = query.getLimit() + 1;
+        PriorityQueue<Worker> top = (workers.size() >= parallelQueryThreshold ? workers.parallelStream() : workers.stream())
+                .filter(worker -> query.matches(worker) && query.isAfterCursor(worker))
+                .collect(Collector.of(() -> new PriorityQueue<>(count + 1, order.reversed()),
+                        (heap, worker) -> offer(heap, worker, count, order),
+                        (heap, other) -> {
+                            other.forEach(worker -> offer(heap, worker, count, order));
+                            return heap;
+                        }));
+        List<Worker> page = new ArrayList<>(top);
+        page.sort(order);
+        return page(current.getVersion(), page, query, false);
+    }
+
+    private static void offer(PriorityQueue<Worker> heap, Worker worker, int count, Comparator<Worker> order) {
+        if (heap.size() < count)
+            heap.add(worker);
+        else if (order.compare(worker, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(worker);
+        }
+    }
+
+    /**
+     * Читает индекс по зарплате частями: под блокировкой копируется не больше {@link #QUERY_CHUNK} объектов
+     * начиная с последнего просмотренного, а условия запроса проверяются уже без блокировки,
+     * так что редкий фильтр не задерживает изменения коллекции на все время просмотра.
+     */
+    private WorkerQuery.Page queryBySalary(WorkerQuery query) {
+        boolean descending = query.isDescending();
+        Integer from = descending ? query.getMaxSalary() : query.getMinSalary();
+        Integer to = descending ? query.getMinSalary() : query.getMaxSalary();
+        Worker position = null;
+        boolean inclusive = false;
+        if (query.getCursorId() != null && query.getCursorKey() != null)
+            position = probe((Integer) query.getCursorKey(), query.getCursorId());
+        else if (from != null) {
+            position = probe(from, descending ? Long.MAX_VALUE : Long.MIN_VALUE);
+            inclusive = true;
+        }
+        List<Worker> page = new ArrayList<>();
+        List<Worker> chunk = new ArrayList<>(QUERY_CHUNK);
+        long version;
+        boolean exhausted;
+        do {
+            chunk.clear();
+            writeLock.lock();
+            try {
+                version = changeLog.getVersion();
+                NavigableSet<Worker> index = store.bySalary().ascending();
+                if (descending)
+                    index = index.descendingSet();
+                if (position != null)
+                    index = index.tailSet(position, inclusive);
+                for (Worker worker : index) {
+                    chunk.add(worker);
+                    if (chunk.size() == QUERY_CHUNK)
+                        break;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            exhausted = chunk.size() < QUERY_CHUNK;
+            for (Worker worker : chunk) {
+                if (to != null && (descending ? worker.getSalary() < to : worker.getSalary() > to)) {
+                    exhausted = true;
+                    break;
+                }
+                if (query.matches(worker) && page.add(worker) && page.size() > query.getLimit()) {
+                    exhausted = true;
+                    break;
+                }
+            }
+            if (!chunk.isEmpty())
+                position = chunk.get(chunk.size() - 1);
+            inclusive = false;
+        } while (!exhausted);
+        return page(version, page, query, true);
+    }
+
+    /**
+     * Объект, который стоит в индексе по зарплате перед объектами с такой же зарплатой и большим ID.
+     */
+    private static Worker probe(int salary, long id) {
+        return WorkerFactory.create(id, "probe", 0, 0, salary, null, null, null, null,
+                null, null, null, null, null);
+    }
+
+    private static WorkerQuery.Page page(long version, List<Worker> workers, WorkerQuery query, boolean indexed) {
+        String nextCursor = null;
+        if (workers.size() > query.getLimit()) {
+            workers = workers.subList(0, query.getLimit());
+            nextCursor = query.cursorAfter(workers.get(workers.size() - 1));
+        }
+        return new WorkerQuery.Page(version, new ArrayList<>(workers), nextCursor, indexed);
     }
 
     /**
@@ -222,8 +513,7 @@ public final class StorageInteraction implements InteractionInterface {
      * @return Число объектов с указанным статусом.
      */
     public long countByStatus(Status status) {
-        return storage.getCollection().stream()
-                .filter(worker -> status.equals(worker.getStatus())).count();
+        return snapshot().countByStatus(status);
     }
 
     /**
@@ -232,12 +522,12 @@ public final class StorageInteraction implements InteractionInterface {
      * @return Отсортированное строковое представление коллекции.
      */
     public String printAscending() {
-        HashSet<Worker> workers = storage.getCollection();
-        List<Worker> toBeSortedWorkers = new ArrayList<>(workers);
-        toBeSortedWorkers.sort(Comparator.comparing(Worker::getSalary));
-        StringBuilder display = new StringBuilder();
-        toBeSortedWorkers.forEach((worker -> display.append(worker.displayWorker())));
-        return display.toString();
+        CollectionSnapshot current = snapshot();
+        return renderCache.getText(current.getVersion(), "print_ascending", () -> {
+            StringBuilder display = new StringBuilder();
+            current.sorted("salary", OrderedIndex.BY_SALARY).forEach((worker -> display.append(worker.displayWorker())));
+            return display.toString();
+        });
     }
 
     /**
@@ -246,11 +536,7 @@ public final class StorageInteraction implements InteractionInterface {
      * @return Список всех уникальных организаций.
      */
     public List<String> printUniqueOrganization() {
-        List<String> organizations = new ArrayList<>();
-        storage.getCollection().stream()
-                .filter(worker -> !organizations.contains(worker.getOrganization().toString())).
-                forEach(worker -> organizations.add(worker.getOrganization().toString()));
-        return organizations;
+        return snapshot().getOrganizations();
     }
 
     /**
@@ -259,17 +545,23 @@ public final class StorageInteraction implements InteractionInterface {
      * @return Размер коллекции.
      */
     public int getSize() {
-        return storage.getCollection().size();
+        return snapshot().size();
     }
 
     /**
-     * Метод, проверяющий наличие объекта по ID.
+     * Метод, проверяющий наличие объекта по ID. Проверка выполняется по индексу хранилища
+     * под блокировкой записи, поэтому видит все завершенные изменения, даже если снимок еще не опубликован.
      *
      * @param id ID для поиска.
      * @return True если объект существует, иначе false.
      */
     public boolean findById(long id) {
-        return storage.getIdList().contains(id);
+        writeLock.lock();
+        try {
+            return store.contains(id);
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
@@ -282,10 +574,132 @@ public final class StorageInteraction implements InteractionInterface {
     }
 
     public void addAll(HashSet<Worker> collection) {
-        storage.getCollection().addAll(collection);
+        write(() -> {
+            store.putAll(collection);
+            reset();
+        });
     }
 
+    /**
+     * Подключает журнал изменений: применяет к коллекции записи, сделанные после последнего снимка,
+     * открывает журнал и начинает записывать в него изменения.
+     * Если коллекция загружена не из снимка, а из базы данных, записи журнала в ней уже учтены:
+     * они не применяются повторно, а журнал сразу отмечается как сохраненный и усекается.
+     *
+     * @param journal журнал изменений.
+     * @param replay  true если коллекция загружена из снимка и записи журнала нужно применить.
+     * @return Число примененных или отброшенных записей.
+     */
+    public int attachJournal(MutationJournal journal, boolean replay) throws IOException {
+        List<MutationJournal.Entry> entries = journal.read();
+        if (!replay) {
+            journal.open();
+            journal.checkpoint(journal.lastSequence());
+            snapshotWriter.setCheckpointListener(journal::checkpoint);
+            this.journal = journal;
+            return entries.size();
+        }
+        write(() -> {
+            for (MutationJournal.Entry entry : entries) {
+                switch (entry.getType()) {
+                    case ADD:
+                    case UPDATE:
+                        if (entry.getWorker() != null)
+                            store.put(entry.getWorker());
+                        break;
+                    case REMOVE:
+                        store.remove(entry.getId());
+                        break;
+                    case CLEAR:
+                        store.clear();
+                        storage.getIdList().clear();
+                        break;
+                }
+            }
+            reset();
+        });
+        journal.open();
+        snapshotWriter.setCheckpointListener(journal::checkpoint);
+        this.journal = journal;
+        return entries.size();
+    }
+
+    /**
+     * Задает получателя номера версии коллекции, вызываемого после того, как изменение
+     * применено и записано в журнал, вне блокировки записи.
+     *
+     * @param changeListener получатель версии.
+     */
+    public void setChangeListener(LongConsumer changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    /**
+     * Метод, возвращающий подключенный журнал изменений.
+     *
+     * @return Журнал изменений или null.
+     */
+    public MutationJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Сохраняет несохраненные изменения и закрывает журнал. Повторные вызовы ничего не делают.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true))
+            return;
+        snapshotWriter.close();
+        MutationJournal journal = this.journal;
+        if (journal != null)
+            journal.close();
+    }
+
+    /**
+     * Метод, возвращающий хранилище. Его коллекция изменяется под блокировкой записи,
+     * поэтому для чтения следует использовать {@link #snapshot()}.
+     *
+     * @return Хранилище.
+     */
     public Storage getStorage() {
         return storage;
     }
+
+    /**
+     * Метод, возвращающий фоновую запись снимков коллекции.
+     *
+     * @return Запись снимков.
+     */
+    public SnapshotWriter getSnapshotWriter() {
+        return snapshotWriter;
+    }
+
+    /**
+     * Метод, возвращающий кеш отображений коллекции.
+     *
+     * @return Кеш отображений.
+     */
+    public RenderCache getRenderCache() {
+        return renderCache;
+    }
+
+    private void record(ChangeLog.Type type, long id, Worker worker) {
+        renderCache.invalidateBefore(changeLog.record(type, id, worker));
+        MutationJournal journal = this.journal;
+        if (journal != null)
+            journal.append(MutationJournal.Type.valueOf(type.name()), id, worker);
+    }
+
+    private void reset() {
+        renderCache.invalidateBefore(changeLog.reset());
+    }
+
+    /**
+     * Метод, возвращающий журнал изменений коллекции.
+     *
+     * @return Журнал изменений.
+     */
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
 }
@@ -0,0 +1,14 @@
+package server.interaction;
+
+import commons.elements.Worker;
+
+/**
+ * Вторичная структура, обновляемая при каждом изменении хранилища объектов.
+ */
+interface StoreListener {
+    void added(Worker worker);
+
+    void removed(Worker worker);
+
+    void cleared();
+}
@@ -0,0 +1,339 @@
+package server.interaction;
+
+import commons.elements.Position;
+import commons.elements.Status;
+import commons.elements.Worker;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Запрос к коллекции: условия на поля объектов, порядок и страница результата.
+ * Запрос задается строкой из условий через ';', например
+ * {@code status=HIRED,FIRED; salary=1000..5000; org=Organization1; position=ENGINEER;
+ * end=2022-01-01..2022-12-31; sort=-salary; limit=50; after=<курсор>}.
+ * Границы диапазонов включаются в него, любую из них можно опустить. Знак '-' перед ключом порядка
+ * означает порядок по убыванию; объекты с равным ключом упорядочиваются по ID.
+ * Курсор - непрозрачная строка из предыдущей страницы: следующая страница начинается
+ * сразу после последнего объекта предыдущей, даже если коллекция между запросами изменилась.
+ */
+public final class WorkerQuery {
+    /**
+     * Наибольший размер страницы.
+     */
+    public static final int MAX_LIMIT = Integer.getInteger("server.query.maxLimit", 1000);
+
+    /**
+     * Ключ порядка.
+     */
+    public enum Sort {
+        ID(worker -> worker.getId(), Long::valueOf),
+        SALARY(worker -> worker.getSalary(), Integer::valueOf),
+        NAME(worker -> worker.getName(), key -> key),
+        END_DATE(worker -> endDate(worker), key -> key);
+
+        private final Function<Worker, Comparable<?>> key;
+        private final Function<String, Comparable<?>> parser;
+
+        Sort(Function<Worker, Comparable<?>> key, Function<String, Comparable<?>> parser) {
+            this.key = key;
+            this.parser = parser;
+        }
+    }
+
+    /**
+     * Страница результата запроса.
+     */
+    public static final class Page {
+        private final long version;
+        private final List<Worker> workers;
+        private final String nextCursor;
+        private final boolean indexed;
+
+        Page(long version, List<Worker> workers, String nextCursor, boolean indexed) {
+            this.version = version;
+            this.workers = Collections.unmodifiableList(workers);
+            this.nextCursor = nextCursor;
+            this.indexed = indexed;
+        }
+
+        /**
+         * @return Версия коллекции, по которой построена страница.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return Объекты страницы в порядке запроса.
+         */
+        public List<Worker> getWorkers() {
+            return workers;
+        }
+
+        /**
+         * @return Курсор следующей страницы или null, если страница последняя.
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        /**
+         * @return True если страница получена по индексу, а не просмотром всей коллекции.
+         */
+        public boolean isIndexed() {
+            return indexed;
+        }
+    }
+
+    private EnumSet<Status> statuses;
+    private EnumSet<Position> positions;
+    private Integer minSalary;
+    private Integer maxSalary;
+    private String organization;
+    private String endFrom;
+    private String endTo;
+    private Sort sort = Sort.ID;
+    private boolean descending;
+    private int limit = 50;
+    private Comparable<?> cursorKey;
+    private long cursorId;
+    private boolean hasCursor;
+
+    private WorkerQuery() {
+    }
+
+    /**
+     * Метод, разбирающий запрос из строки.
+     *
+     * @param text строка запроса; пустая строка или null означает первую страницу всей коллекции по ID.
+     * @return Запрос.
+     * @throws IllegalArgumentException если запрос записан неверно.
+     */
+    public static WorkerQuery parse(String text) {
+        WorkerQuery query = new WorkerQuery();
+        if (text == null)
+            return query;
+        String cursor = null;
+        for (String clause : text.split(";")) {
+            clause = clause.trim();
+            if (clause.isEmpty())
+                continue;
+            int separator = clause.indexOf('=');
+            if (separator <= 0)
+                throw new IllegalArgumentException("Condition is not in the form name=value: " + clause);
+            String name = clause.substring(0, separator).trim().toLowerCase(Locale.ROOT);
+            String value = clause.substring(separator + 1).trim();
+            switch (name) {
+                case "status":
+                    query.statuses = EnumSet.noneOf(Status.class);
+                    for (String status : value.split(","))
+                        query.statuses.add(Status.valueOf(status.trim().toUpperCase(Locale.ROOT)));
+                    break;
+                case "position":
+                    query.positions = EnumSet.noneOf(Position.class);
+                    for (String position : value.split(","))
+                        query.positions.add(Position.valueOf(position.trim().toUpperCase(Locale.ROOT)));
+                    break;
+                case "salary":
+                    String[] salary = range(value);
+                    query.minSalary = salary[0] == null ? null : Integer.valueOf(salary[0]);
+                    query.maxSalary = salary[1] == null ? null : Integer.valueOf(salary[1]);
+                    break;
+                case "org":
+                case "organization":
+                    query.organization = value;
+                    break;
+                case "end":
+                case "enddate":
+                    String[] end = range(value);
+                    query.endFrom = date(end[0]);
+                    query.endTo = date(end[1]);
+                    break;
+                case "sort":
+                    query.descending = value.startsWith("-");
+                    query.sort = Sort.valueOf(value.substring(query.descending ? 1 : 0).toUpperCase(Locale.ROOT)
+                            .replace("ENDDATE", "END_DATE"));
+                    break;
+                case "limit":
+                    query.limit = Integer.parseInt(value);
+                    if (query.limit <= 0 || query.limit > MAX_LIMIT)
+                        throw new IllegalArgumentException("Limit must be between 1 and " + MAX_LIMIT);
+                    break;
+                case "after":
+                    cursor = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown condition: " + name);
+            }
+        }
+        if (cursor != null)
+            query.decodeCursor(cursor);
+        return query;
+    }
+
+    private static String[] range(String value) {
+        int separator = value.indexOf("..");
+        String from = separator < 0 ? value : value.substring(0, separator).trim();
+        String to = separator < 0 ? value : value.substring(separator + 2).trim();
+        return new String[]{from.isEmpty() ? null : from, to.isEmpty() ? null : to};
+    }
+
+    private static String date(String value) {
+        if (value == null)
+            return null;
+        try {
+            return LocalDate.parse(value).toString();
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Date is not in the form yyyy-MM-dd: " + value, e);
+        }
+    }
+
+    /**
+     * Дата окончания в виде yyyy-MM-dd: строки такого вида упорядочены так же, как даты.
+     */
+    private static String endDate(Worker worker) {
+        String endDate = worker.getEndDateString();
+        return endDate == null || endDate.equals("null") ? null : endDate;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    Integer getMinSalary() {
+        return minSalary;
+    }
+
+    Integer getMaxSalary() {
+        return maxSalary;
+    }
+
+    /**
+     * @return True если объект удовлетворяет условиям запроса; курсор не учитывается.
+     */
+    public boolean matches(Worker worker) {
+        if (statuses != null && !statuses.contains(worker.getStatus()))
+            return false;
+        if (minSalary != null && (worker.getSalary() == null || worker.getSalary() < minSalary))
+            return false;
+        if (maxSalary != null && (worker.getSalary() == null || worker.getSalary() > maxSalary))
+            return false;
+        if (organization != null && !organization.equals(worker.getOrganizationNameString()))
+            return false;
+        if (positions != null && !matchesPosition(worker.getPositionString()))
+            return false;
+        if (endFrom != null || endTo != null) {
+            String endDate = endDate(worker);
+            if (endDate == null || (endFrom != null && endDate.compareTo(endFrom) < 0)
+                    || (endTo != null && endDate.compareTo(endTo) > 0))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean matchesPosition(String position) {
+        for (Position candidate : positions)
+            if (candidate.name().equals(position))
+                return true;
+        return false;
+    }
+
+    /**
+     * @return Порядок объектов в результате запроса.
+     */
+    public Comparator<Worker> order() {
+        Comparator<Worker> order = (first, second) -> {
+            int result = compareKeys(sort.key.apply(first), sort.key.apply(second));
+            return result != 0 ? result : Long.compare(first.getId(), second.getId());
+        };
+        return descending ? order.reversed() : order;
+    }
+
+    /**
+     * @return True если объект идет после курсора в порядке запроса или курсор не задан.
+     */
+    public boolean isAfterCursor(Worker worker) {
+        if (!hasCursor)
+            return true;
+        int result = compareKeys(sort.key.apply(worker), cursorKey);
+        if (result == 0)
+            result = Long.compare(worker.getId(), cursorId);
+        return descending ? result < 0 : result > 0;
+    }
+
+    /**
+     * @return ID объекта, после которого начинается страница, или null, если курсор не задан.
+     */
+    Long getCursorId() {
+        return hasCursor ? cursorId : null;
+    }
+
+    /**
+     * @return Значение ключа порядка у объекта, после которого начинается страница.
+     */
+    Comparable<?> getCursorKey() {
+        return cursorKey;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareKeys(Comparable first, Comparable second) {
+        if (first == null)
+            return second == null ? 0 : -1;
+        if (second == null)
+            return 1;
+        return first.compareTo(second);
+    }
+
+    /**
+     * Метод, строящий курсор страницы, которая начинается после указанного объекта.
+     * Курсор хранит поле и направление сортировки и подходит только к запросу с тем же порядком.
+     *
+     * @param last последний объект текущей страницы.
+     * @return Курсор.
+     */
+    String cursorAfter(Worker last) {
+        Object key = sort.key.apply(last);
+        String text = orderName() + "\n" + (key == null ? "" : "=" + key) + "\n" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return Поле сортировки, перед которым стоит "-" при сортировке по убыванию.
+     */
+    private String orderName() {
+        return descending ? "-" + sort.name() : sort.name();
+    }
+
+    private void decodeCursor(String cursor) {
+        try {
+            String text = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int first = text.indexOf('\n');
+            int last = text.lastIndexOf('\n');
+            if (first < 0 || first == last || !text.substring(0, first).equals(orderName()))
+                throw new IllegalArgumentException("Cursor does not belong to this order");
+            String key = text.substring(first + 1, last);
+            cursorKey = key.isEmpty() ? null : sort.parser.apply(key.substring(1));
+            cursorId = Long.parseLong(text.substring(last + 1));
+            hasCursor = true;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor is invalid: " + cursor, e);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package server.interaction;
+
+import commons.elements.Worker;
+
+import javax.naming.LimitExceededException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Хранилище объектов коллекции с первичным индексом по ID.
+ * Поиск, замена и удаление по ID выполняются за O(1) независимо от размера коллекции.
+ * Множество объектов хранилища {@link commons.utils.Storage} поддерживается в согласованном состоянии,
+ * так как именно оно отправляется клиентам. Вторичные индексы обновляются при каждом изменении.
+ */
+final class WorkerStore {
+    private final HashSet<Worker> collection;
+    private final LongWorkerMap byId;
+    private final OrderedIndex bySalary = new OrderedIndex(OrderedIndex.BY_SALARY);
+    private final OrderedIndex natural = new OrderedIndex(OrderedIndex.NATURAL);
+    private final CollectionAggregates aggregates = new CollectionAggregates();
+    private final List<StoreListener> listeners = Arrays.asList(bySalary, natural, aggregates);
+    private long nextId = 1;
+    /**
+     * Журнал отмены: состояние каждого измененного объекта до начала транзакции, null если объекта не было.
+     */
+    private LinkedHashMap<Long, Worker> undo;
+
+    WorkerStore(HashSet<Worker> collection) {
+        this.collection = collection;
+        this.byId = new LongWorkerMap(collection.size());
+        collection.forEach(this::index);
+    }
+
+    private void index(Worker worker) {
+        long id = worker.getId();
+        byId.put(id, worker);
+        if (id >= nextId)
+            nextId = id + 1;
+        for (StoreListener listener : listeners)
+            listener.added(worker);
+    }
+
+    /**
+     * Метод, выдающий свободный ID.
+     *
+     * @return Новый ID.
+     * @throws LimitExceededException если ID исчерпаны.
+     */
+    long allocateId() throws LimitExceededException {
+        if (nextId == Long.MAX_VALUE)
+            throw new LimitExceededException("No more free IDs");
+        return nextId++;
+    }
+
+    Worker get(long id) {
+        return byId.get(id);
+    }
+
+    boolean contains(long id) {
+        return byId.containsKey(id);
+    }
+
+    /**
+     * Метод, добавляющий объект или заменяющий объект с тем же ID.
+     *
+     * @return Замененный объект или null.
+     */
+    Worker put(Worker worker) {
+        Worker previous = byId.get(worker.getId());
+        remember(worker.getId(), previous);
+        if (previous != null) {
+            collection.remove(previous);
+            for (StoreListener listener : listeners)
+                listener.removed(previous);
+        }
+        index(worker);
+        collection.add(worker);
+        return previous;
+    }
+
+    void putAll(Collection<Worker> workers) {
+        workers.forEach(this::put);
+    }
+
+    /**
+     * @return Удаленный объект или null, если объекта с таким ID нет.
+     */
+    Worker remove(long id) {
+        Worker removed = byId.remove(id);
+        if (removed != null) {
+            remember(id, removed);
+            collection.remove(removed);
+            for (StoreListener listener : listeners)
+                listener.removed(removed);
+        }
+        return removed;
+    }
+
+    void clear() {
+        if (undo != null)
+            collection.forEach(worker -> remember(worker.getId(), worker));
+        byId.clear();
+        collection.clear();
+        for (StoreListener listener : listeners)
+            listener.cleared();
+    }
+
+    /**
+     * Метод, начинающий запись журнала отмены.
+     */
+    void beginUndo() {
+        undo = new LinkedHashMap<>();
+    }
+
+    /**
+     * Метод, завершающий запись журнала отмены.
+     *
+     * @return Состояния объектов до начала записи по их ID; null означает, что объекта не было.
+     */
+    Map<Long, Worker> endUndo() {
+        Map<Long, Worker> log = undo;
+        undo = null;
+        return log == null ? Collections.emptyMap() : log;
+    }
+
+    private void remember(long id, Worker previous) {
+        if (undo != null && !undo.containsKey(id))
+            undo.put(id, previous);
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    /**
+     * @return Индекс по зарплате.
+     */
+    OrderedIndex bySalary() {
+        return bySalary;
+    }
+
+    /**
+     * @return Индекс в естественном порядке объектов.
+     */
+    OrderedIndex natural() {
+        return natural;
+    }
+
+    /**
+     * @return Агрегаты коллекции.
+     */
+    CollectionAggregates aggregates() {
+        return aggregates;
+    }
+}
@@ -0,0 +1,622 @@
+package server.interaction;
+
+import commons.app.User;
+import commons.elements.Worker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Отложенная пакетная запись изменений коллекции в базу данных.
+ * Изменения и удаления копятся в очереди, сгруппированной по ID: повторные изменения одного объекта
+ * сливаются в последнее. Добавления не сливаются: ID нового объекта назначается уже после постановки
+ * в очередь, поэтому каждое добавление хранится под своим номером. Очистка коллекции
+ * начинает новый участок очереди, и изменения после нее не сливаются с изменениями до нее.
+ * Очередь сбрасывается получателю при накоплении заданного числа изменений или по истечении
+ * интервала; если получатель не применил изменение, оно и все следующие за ним остаются в очереди
+ * и повторяются при следующем сбросе. Если очередь заполнена, добавляющий изменение ждет сброса.
+ * Изменения, сделанные в транзакции, попадают в очередь только при ее подтверждении.
+ * <p>
+ * Получатель применяет каждое изменение отдельным вызовом, а не одной транзакцией на сброс:
+ * {@link commons.utils.DataBaseCenter} не дает соединения, в котором можно было бы открыть транзакцию.
+ * Поэтому сбой посреди пакета может оставить примененным изменение, о котором получатель не успел
+ * сообщить. Такое изменение повторяется идемпотентно: добавление сначала пробуется как изменение
+ * объекта с тем же ID, а удаление уже удаленного объекта считается выполненным.
+ * <p>
+ * Ожидающий изменения узнает его собственный результат: изменение, отклоненное базой данных,
+ * завершается с false. В режиме ASYNC сразу подтверждаются только добавления, очистки и изменения
+ * объектов, владелец которых известен по ранее принятым изменениям; остальные ждут ответа базы данных,
+ * чтобы чужой объект не был изменен в памяти раньше, чем база данных откажет.
+ */
+public final class WriteBehindStage implements AutoCloseable {
+    /**
+     * Когда изменение считается завершенным.
+     * ASYNC - сразу после постановки в очередь, если база данных заведомо его примет, иначе как в SYNC;
+     * SYNC - после применения пакета, в который оно вошло.
+     */
+    public enum Mode {
+        ASYNC, SYNC
+    }
+
+    private static final class Pending {
+        /**
+         * ID объекта или отрицательный номер добавления.
+         */
+        private long key;
+        /**
+         * Новое состояние объекта, null если объект удален.
+         */
+        private Worker worker;
+        private boolean added;
+        private User user;
+        /**
+         * ID объекта при постановке добавления в очередь: пока он не изменился, ID еще не назначен.
+         */
+        private long enqueuedId;
+        /**
+         * Получатель мог применить изменение перед сбоем, поэтому повтор должен быть идемпотентным.
+         */
+        private boolean uncertain;
+        /**
+         * Номера слитых в это изменение ожидаемых изменений.
+         */
+        private long[] tickets = NO_TICKETS;
+        private int ticketCount;
+
+        private void addTicket(long ticket) {
+            if (ticketCount == tickets.length)
+                tickets = Arrays.copyOf(tickets, Math.max(2, tickets.length * 2));
+            tickets[ticketCount++] = ticket;
+        }
+    }
+
+    /**
+     * Участок очереди: очистка коллекции, если она была, и изменения после нее.
+     */
+    private static final class Segment {
+        private User clear;
+        private final LinkedHashMap<Long, Pending> changes = new LinkedHashMap<>();
+    }
+
+    private static final Logger logger = Logger.getLogger(WriteBehindStage.class.getName());
+    private static final long[] NO_TICKETS = new long[0];
+
+    private final MutationSink sink;
+    private final Mode mode;
+    private final int batchSize;
+    private final int capacity;
+    private final long flushIntervalMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private ArrayDeque<Segment> pending = new ArrayDeque<>();
+    /**
+     * Число изменений в очереди.
+     */
+    private int size;
+    private long ticket;
+    private long committedTicket;
+    /**
+     * Номер последнего добавления; добавления хранятся в очереди под отрицательными номерами.
+     */
+    private long addSequence;
+    private boolean closed;
+    /**
+     * Результаты ожидаемых изменений по их номерам: false если база данных отклонила изменение.
+     */
+    private final Map<Long, Boolean> verdicts;
+    /**
+     * Владельцы объектов по ID, известные по принятым изменениям.
+     */
+    private final Map<Long, User> owners = new HashMap<>();
+    /**
+     * Добавления в очереди вне транзакций, ID которых еще не перенесен в {@link #owners}.
+     */
+    private final LinkedHashSet<Pending> freshAdds = new LinkedHashSet<>();
+    /**
+     * Поток, открывший транзакцию, и ее изменения; null если транзакция не открыта.
+     */
+    private Thread owner;
+    private ArrayDeque<Segment> transaction;
+    /**
+     * True если результат транзакции нужно дождаться даже в режиме ASYNC.
+     */
+    private boolean transactionAwaited;
+    private final Thread flusher;
+
+    private long enqueued;
+    private long coalesced;
+    private long batches;
+    private long rows;
+    private long rejected;
+    private long rolledBack;
+    private long failures;
+    private long stalls;
+    private long retried;
+
+    /**
+     * @param sink                получатель изменений.
+     * @param mode                режим завершения изменений.
+     * @param batchSize           число изменений, при котором пакет сбрасывается сразу.
+     * @param capacity            наибольшее число ожидающих сброса изменений.
+     * @param flushIntervalMillis наибольшее время ожидания изменения в очереди.
+     */
+    public WriteBehindStage(MutationSink sink, Mode mode, int batchSize, int capacity, long flushIntervalMillis) {
+        this.sink = sink;
+        this.mode = mode;
+        this.batchSize = batchSize;
+        this.capacity = Math.max(capacity, batchSize);
+        this.flushIntervalMillis = flushIntervalMillis;
+        int maxVerdicts = this.capacity;
+        this.verdicts = new LinkedHashMap<Long, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > maxVerdicts;
+            }
+        };
+        this.flusher = new Thread(this::flushLoop, "write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Ставит в очередь добавление объекта. Добавление не сливается с другими изменениями.
+     *
+     * @return Номер изменения для {@link #awaitCommitted(long, long)}, 0 если оно записано в открытую транзакцию.
+     */
+    public long add(Worker worker, User user) {
+        lock.lock();
+        try {
+            return enqueue(-++addSequence, worker, true, user, false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ставит в очередь изменение объекта.
+     *
+     * @return Номер изменения для {@link #awaitCommitted(long, long)}, 0 если оно записано в открытую транзакцию.
+     */
+    public long update(long id, Worker worker, User user) {
+        lock.lock();
+        try {
+            return enqueue(id, worker, false, user, !ownedBy(id, user));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ставит в очередь удаление объекта.
+     *
+     * @return Номер изменения для {@link #awaitCommitted(long, long)}, 0 если оно записано в открытую транзакцию.
+     */
+    public long remove(long id, User user) {
+        lock.lock();
+        try {
+            return enqueue(id, null, false, user, !ownedBy(id, user));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param unconfirmed true если база данных может отклонить изменение и в режиме ASYNC нужно дождаться ее ответа.
+     */
+    private long enqueue(long key, Worker worker, boolean added, User user, boolean unconfirmed) {
+        enqueued++;
+        boolean awaited = mode == Mode.SYNC || unconfirmed;
+        if (owner == Thread.currentThread()) {
+            transactionAwaited |= awaited;
+            merge(transaction, key, worker, added, user, 0);
+            return 0;
+        }
+        awaitSpace();
+        long assigned = ++ticket;
+        size += merge(pending, key, worker, added, user, awaited ? assigned : 0);
+        return next(assigned, awaited);
+    }
+
+    /**
+     * Ставит в очередь очистку коллекции от имени пользователя.
+     *
+     * @return Номер изменения для {@link #awaitCommitted(long, long)}, 0 если оно записано в открытую транзакцию.
+     */
+    public long clear(User user) {
+        lock.lock();
+        try {
+            enqueued++;
+            Segment segment = new Segment();
+            segment.clear = user;
+            if (owner == Thread.currentThread()) {
+                transaction.addLast(segment);
+                return 0;
+            }
+            awaitSpace();
+            pending.addLast(segment);
+            size++;
+            return next(++ticket, mode == Mode.SYNC);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return True если по принятым изменениям известно, что объект принадлежит пользователю.
+     * Пользователи сравниваются через equals; если библиотека его не определяет, совпадает только тот же объект
+     * пользователя (сессия хранит один объект), а в остальных случаях изменение просто ждет ответа базы данных.
+     */
+    private boolean ownedBy(long id, User user) {
+        User known = owners.get(id);
+        if (known == null && !freshAdds.isEmpty()) {
+            Iterator<Pending> adds = freshAdds.iterator();
+            while (adds.hasNext()) {
+                Pending add = adds.next();
+                long assigned = add.worker.getId();
+                if (assigned != add.enqueuedId) {
+                    owners.put(assigned, add.user);
+                    adds.remove();
+                }
+            }
+            known = owners.get(id);
+        }
+        return known != null && Objects.equals(known, user);
+    }
+
+    /**
+     * Добавляет изменение в конец очереди, сливая изменение объекта с изменением того же объекта в последнем участке.
+     *
+     * @param key    ID объекта или отрицательный номер добавления.
+     * @param worker новое состояние объекта, null если объект удален.
+     * @param ticket номер ожидаемого изменения или 0.
+     * @return На сколько изменилось число изменений в очереди.
+     */
+    private int merge(ArrayDeque<Segment> queue, long key, Worker worker, boolean added, User user, long ticket) {
+        Segment last = queue.peekLast();
+        if (last == null) {
+            last = new Segment();
+            queue.addLast(last);
+        }
+        Pending entry = last.changes.get(key);
+        int delta = 0;
+        if (entry == null) {
+            entry = new Pending();
+            entry.key = key;
+            last.changes.put(key, entry);
+            if (added && queue == pending) {
+                entry.enqueuedId = worker.getId();
+                freshAdds.add(entry);
+            }
+            delta = 1;
+        } else coalesced++;
+        entry.worker = worker;
+        entry.added |= added;
+        entry.user = user;
+        if (ticket != 0)
+            entry.addTicket(ticket);
+        return delta;
+    }
+
+    private void awaitSpace() {
+        while (size >= capacity && !closed) {
+            stalls++;
+            ready.signal();
+            drained.awaitUninterruptibly();
+        }
+    }
+
+    private long next(long assigned, boolean awaited) {
+        if (awaited)
+            verdicts.put(assigned, Boolean.TRUE);
+        if (size >= batchSize || awaited)
+            ready.signal();
+        return assigned;
+    }
+
+    /**
+     * Метод, открывающий транзакцию текущего потока: его изменения до {@link #commit()} копятся отдельно
+     * от очереди и не попадают в базу данных, а {@link #rollback()} отбрасывает их.
+     * Изменения других потоков тем временем идут в очередь как обычно.
+     *
+     * @throws IllegalStateException если транзакция уже открыта.
+     */
+    public void begin() {
+        lock.lock();
+        try {
+            if (owner != null)
+                throw new IllegalStateException("Write-behind transaction is already open in " + owner.getName());
+            owner = Thread.currentThread();
+            transaction = new ArrayDeque<>();
+            transactionAwaited = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Метод, переносящий изменения транзакции текущего потока в очередь целиком.
+     * Очередь при этом не ограничивается по размеру. Результат транзакции - false, если база данных
+     * отклонила хотя бы одно ее изменение.
+     *
+     * @return Номер последнего изменения транзакции.
+     */
+    public long commit() {
+        lock.lock();
+        try {
+            ArrayDeque<Segment> committed = detach(Thread.currentThread());
+            boolean awaited = transactionAwaited;
+            long assigned = ++ticket;
+            for (Segment segment : committed) {
+                if (segment.clear != null) {
+                    Segment clear = new Segment();
+                    clear.clear = segment.clear;
+                    pending.addLast(clear);
+                    size++;
+                }
+                segment.changes.forEach((key, entry) ->
+                        size += merge(pending, key, entry.worker, entry.added, entry.user, awaited ? assigned : 0));
+            }
+            return next(assigned, awaited);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Метод, отбрасывающий изменения транзакции текущего потока.
+     */
+    public void rollback() {
+        lock.lock();
+        try {
+            for (Segment segment : detach(Thread.currentThread()))
+                rolledBack += segment.changes.size() + (segment.clear == null ? 0 : 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ArrayDeque<Segment> detach(Thread thread) {
+        if (owner != thread)
+            throw new IllegalStateException("No write-behind transaction is open in " + thread.getName());
+        ArrayDeque<Segment> closing = transaction;
+        owner = null;
+        transaction = null;
+        return closing;
+    }
+
+    /**
+     * Ждет применения изменения с указанным номером, если его нужно дождаться. Результат можно получить один раз.
+     *
+     * @param ticket  номер изменения.
+     * @param timeout наибольшее время ожидания в миллисекундах.
+     * @return True если изменение применено и принято базой данных или его не нужно ждать;
+     * false если база данных его отклонила или оно не применено за отведенное время.
+     */
+    public boolean awaitCommitted(long ticket, long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        lock.lock();
+        try {
+            if (!verdicts.containsKey(ticket))
+                return true;
+            ready.signal();
+            while (committedTicket < ticket && !closed) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0)
+                    return false;
+                drained.awaitNanos(left);
+            }
+            return committedTicket >= ticket && verdicts.get(ticket);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            verdicts.remove(ticket);
+            lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ArrayDeque<Segment> batch;
+            int batchChanges;
+            long batchTicket;
+            lock.lock();
+            try {
+                if (size < batchSize && !closed)
+                    ready.awaitNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis));
+                if (size == 0) {
+                    committedTicket = ticket;
+                    drained.signalAll();
+                    if (closed)
+                        return;
+                    continue;
+                }
+                batch = pending;
+                batchChanges = size;
+                batchTicket = ticket;
+                pending = new ArrayDeque<>();
+                size = 0;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            List<Pending> accepted = new ArrayList<>();
+            List<Pending> refused = new ArrayList<>();
+            int[] counts = new int[4];
+            boolean applied = apply(batch, counts, accepted, refused);
+            lock.lock();
+            try {
+                rows += counts[0];
+                rejected += counts[1];
+                retried += counts[3];
+                if (counts[2] > 0)
+                    owners.clear();
+                learn(accepted, refused);
+                if (applied) {
+                    committedTicket = batchTicket;
+                    batches++;
+                } else {
+                    failures++;
+                    requeue(batch, batchChanges - counts[0] - counts[1]);
+                }
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (!applied) {
+                if (closed)
+                    return;
+                try {
+                    Thread.sleep(flushIntervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Применяет изменения пакета по порядку, убирая из него примененные.
+     * Изменение, во время которого получатель выбросил исключение, остается в пакете и помечается
+     * как возможно примененное.
+     *
+     * @param counts   число примененных изменений, отклоненных изменений, примененных очисток и повторов.
+     * @param accepted принятые изменения объектов.
+     * @param refused  отклоненные изменения объектов.
+     * @return True если пакет применен целиком.
+     */
+    private boolean apply(ArrayDeque<Segment> batch, int[] counts, List<Pending> accepted, List<Pending> refused) {
+        Pending current = null;
+        try {
+            for (Segment segment = batch.peekFirst(); segment != null; segment = batch.peekFirst()) {
+                if (segment.clear != null) {
+                    boolean result = sink.clear(segment.clear);
+                    count(result, counts);
+                    if (result)
+                        counts[2]++;
+                    segment.clear = null;
+                }
+                Iterator<Map.Entry<Long, Pending>> changes = segment.changes.entrySet().iterator();
+                while (changes.hasNext()) {
+                    Map.Entry<Long, Pending> change = changes.next();
+                    current = change.getValue();
+                    if (current.uncertain)
+                        counts[3]++;
+                    boolean result = write(current);
+                    count(result, counts);
+                    (result ? accepted : refused).add(current);
+                    current = null;
+                    changes.remove();
+                }
+                batch.pollFirst();
+            }
+            return true;
+        } catch (Exception e) {
+            if (current != null)
+                current.uncertain = true;
+            logger.log(Level.SEVERE, "Write-behind batch was applied partially, "
+                    + counts[0] + " changes written before the failure", e);
+            return false;
+        }
+    }
+
+    /**
+     * Передает изменение получателю. Повтор изменения, которое могло быть применено перед сбоем, идемпотентен.
+     */
+    private boolean write(Pending entry) throws Exception {
+        if (entry.worker == null)
+            return sink.remove(entry.key, entry.user) || entry.uncertain;
+        if (!entry.added)
+            return sink.update(entry.key, entry.worker, entry.user);
+        if (entry.uncertain && sink.update(entry.worker.getId(), entry.worker, entry.user))
+            return true;
+        return sink.add(entry.worker, entry.user);
+    }
+
+    /**
+     * Запоминает владельцев принятых изменений и результаты ожидаемых изменений.
+     * После очистки владельцы забываются: очистка удаляет объекты, о которых очередь не знает.
+     */
+    private void learn(List<Pending> accepted, List<Pending> refused) {
+        for (Pending entry : accepted) {
+            freshAdds.remove(entry);
+            if (entry.worker == null)
+                owners.remove(entry.key);
+            else owners.put(entry.worker.getId(), entry.user);
+        }
+        for (Pending entry : refused) {
+            freshAdds.remove(entry);
+            if (entry.added)
+                owners.remove(entry.worker.getId(), entry.user);
+            for (int i = 0; i < entry.ticketCount; i++)
+                verdicts.replace(entry.tickets[i], Boolean.FALSE);
+        }
+    }
+
+    private static void count(boolean accepted, int[] counts) {
+        counts[accepted ? 0 : 1]++;
+        if (!accepted)
+            logger.log(Level.WARNING, "Database rejected a write-behind change");
+    }
+
+    /**
+     * Возвращает непримененный остаток пакета в начало очереди, перед более поздними изменениями.
+     */
+    private void requeue(ArrayDeque<Segment> remainder, int remaining) {
+        remainder.addAll(pending);
+        pending = remainder;
+        size += remaining;
+    }
+
+    /**
+     * Сбрасывает оставшиеся изменения и останавливает поток записи.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            ready.signal();
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "WriteBehindStage{mode=" + mode + ", pending=" + size + ", enqueued=" + enqueued
+                    + ", coalesced=" + coalesced + ", batches=" + batches + ", rows=" + rows
+                    + ", rejected=" + rejected + ", rolledBack=" + rolledBack + ", failures=" + failures
+                    + ", retried=" + retried + ", stalls=" + stalls + ", knownOwners=" + owners.size() + "}";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package server.metrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Общий реестр метрик сервера: гистограммы задержек и размеров, счетчики и число запросов в обработке.
+ * Имена задержек оканчиваются на ".ns", размеров - на ".bytes". Запись метрик не берет блокировок.
+ */
+public final class Metrics implements MetricsMXBean {
+    private static final Metrics instance = new Metrics();
+    /**
+     * Наибольшее число гистограмм; значения с новыми именами сверх него попадают в гистограмму "other".
+     */
+    private static final int MAX_HISTOGRAMS = 512;
+
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final AtomicLong inFlight = new AtomicLong();
+
+    private Metrics() {
+    }
+
+    public static Metrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param name имя гистограммы.
+     * @return Гистограмма; создается при первом обращении.
+     */
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram != null)
+            return histogram;
+        if (histograms.size() >= MAX_HISTOGRAMS)
+            name = "other";
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Метод, записывающий задержку, отсчитанную от указанного момента.
+     *
+     * @param name      имя гистограммы без суффикса.
+     * @param startNanos момент начала по {@link System#nanoTime()}.
+     */
+    public void recordSince(String name, long startNanos) {
+        histogram(name + ".ns").record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Метод, записывающий размер данных.
+     *
+     * @param name  имя гистограммы без суффикса.
+     * @param bytes размер в байтах.
+     */
+    public void recordSize(String name, long bytes) {
+        histogram(name + ".bytes").record(bytes);
+    }
+
+    /**
+     * @param name имя счетчика.
+     */
+    public void increment(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null)
+            counter = counters.computeIfAbsent(name, key -> new LongAdder());
+        counter.increment();
+    }
+
+    /**
+     * Отмечает начало обработки запроса.
+     */
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Отмечает конец обработки запроса.
+     */
+    public void requestFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    @Override
+    public long getRequestsInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getP50() {
+        return collect(histogram -> histogram.percentile(50));
+    }
+
+    @Override
+    public Map<String, Long> getP99() {
+        return collect(histogram -> histogram.percentile(99));
+    }
+
+    @Override
+    public Map<String, Long> getP999() {
+        return collect(histogram -> histogram.percentile(99.9));
+    }
+
+    private Map<String, Long> collect(ToLongFunction<Histogram> value) {
+        Map<String, Long> values = new TreeMap<>();
+        histograms.forEach((name, histogram) -> values.put(name, value.applyAsLong(histogram)));
+        return values;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("in-flight ").append(getRequestsInFlight()).append('\n');
+        getCounters().forEach((name, value) -> report.append(name).append(' ').append(value).append('\n'));
+        new TreeMap<>(histograms).forEach((name, histogram) -> report.append(name)
+                .append(" count=").append(histogram.getCount())
+                .append(" mean=").append(Math.round(histogram.getMean()))
+                .append(" p50=").append(histogram.percentile(50))
+                .append(" p99=").append(histogram.percentile(99))
+                .append(" p999=").append(histogram.percentile(99.9))
+                .append(" max=").append(histogram.getMax()).append('\n'));
+        return report.toString();
+    }
+
+    /**
+     * Регистрирует реестр в сервере JMX под именем server:type=Metrics.
+     */
+    public void registerMBean() throws JMException {
+        ObjectName name = new ObjectName("server:type=Metrics");
+        if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    }
+
+    /**
+     * Дописывает отчет в файл.
+     *
+     * @param file файл отчетов.
+     */
+    public void dump(Path file) throws IOException {
+        Files.write(file, ("# " + ZonedDateTime.now() + "\n" + getReport()).getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+}
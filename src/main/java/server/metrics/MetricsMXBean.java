@@ -0,0 +1,38 @@
+package server.metrics;
+
+import java.util.Map;
+
+/**
+ * Метрики сервера, доступные через JMX.
+ */
+public interface MetricsMXBean {
+    /**
+     * @return Текстовый отчет по всем метрикам.
+     */
+    String getReport();
+
+    /**
+     * @return Число запросов, обрабатываемых в данный момент.
+     */
+    long getRequestsInFlight();
+
+    /**
+     * @return Значения счетчиков по именам.
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return 50-й процентиль каждой гистограммы.
+     */
+    Map<String, Long> getP50();
+
+    /**
+     * @return 99-й процентиль каждой гистограммы.
+     */
+    Map<String, Long> getP99();
+
+    /**
+     * @return 99.9-й процентиль каждой гистограммы.
+     */
+    Map<String, Long> getP999();
+}
@@ -0,0 +1,157 @@
+package server.network;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Пул переиспользуемых прямых буферов нескольких классов размера для приема и отправки датаграмм.
+ * Запросы больше наибольшего класса обслуживаются обычными буферами вне пула.
+ * При свойстве server.bufferPool.debug=true пул запоминает место выдачи каждого буфера
+ * и сообщает о буферах, собранных сборщиком мусора без возврата.
+ */
+public final class BufferPool {
+    private static final Logger logger = Logger.getLogger(BufferPool.class.getName());
+    private static final int[] SIZE_CLASSES = {2 * 1024, 16 * 1024, 64 * 1024, 1024 * 1024};
+    private static final int[] MAX_RETAINED = {512, 128, 64, 8};
+    private static final BufferPool instance = new BufferPool(Boolean.getBoolean("server.bufferPool.debug"));
+    private final Queue<ByteBuffer>[] free;
+    private final AtomicInteger[] retained;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder oversized = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final boolean debug;
+    private final ReferenceQueue<PooledBuffer> leakQueue = new ReferenceQueue<>();
+    private final Set<LeakReference> tracked = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private static final class LeakReference extends PhantomReference<PooledBuffer> {
+        private final Throwable allocation;
+
+        private LeakReference(PooledBuffer buffer, ReferenceQueue<PooledBuffer> queue) {
+            super(buffer, queue);
+            allocation = new Throwable("Buffer acquired here");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    BufferPool(boolean debug) {
+        this.debug = debug;
+        free = (Queue<ByteBuffer>[]) new Queue<?>[SIZE_CLASSES.length];
+        retained = new AtomicInteger[SIZE_CLASSES.length];
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+            retained[i] = new AtomicInteger();
+        }
+    }
+
+    public static BufferPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Метод, выдающий буфер емкостью не меньше указанной.
+     *
+     * @param minCapacity требуемая емкость.
+     * @return Очищенный буфер.
+     */
+    public PooledBuffer acquire(int minCapacity) {
+        if (debug)
+            reportLeaks();
+        int sizeClass = sizeClassOf(minCapacity);
+        ByteBuffer buffer;
+        if (sizeClass < 0) {
+            oversized.increment();
+            buffer = ByteBuffer.allocate(minCapacity);
+        } else {
+            buffer = free[sizeClass].poll();
+            if (buffer != null) {
+                retained[sizeClass].decrementAndGet();
+                hits.increment();
+                buffer.clear();
+            } else {
+                misses.increment();
+                buffer = ByteBuffer.allocateDirect(SIZE_CLASSES[sizeClass]);
+            }
+        }
+        outstanding.incrementAndGet();
+        PooledBuffer pooled = new PooledBuffer(this, buffer, sizeClass);
+        if (debug) {
+            LeakReference reference = new LeakReference(pooled, leakQueue);
+            tracked.add(reference);
+            pooled.leakReference = reference;
+        }
+        return pooled;
+    }
+
+    void release(PooledBuffer pooled) {
+        outstanding.decrementAndGet();
+        if (pooled.leakReference != null) {
+            tracked.remove(pooled.leakReference);
+            ((Reference<?>) pooled.leakReference).clear();
+        }
+        int sizeClass = pooled.getSizeClass();
+        if (sizeClass < 0)
+            return;
+        if (retained[sizeClass].incrementAndGet() <= MAX_RETAINED[sizeClass])
+            free[sizeClass].offer(pooled.buffer());
+        else retained[sizeClass].decrementAndGet();
+    }
+
+    private static int sizeClassOf(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (capacity <= SIZE_CLASSES[i])
+                return i;
+        }
+        return -1;
+    }
+
+    private void reportLeaks() {
+        Reference<? extends PooledBuffer> reference;
+        while ((reference = leakQueue.poll()) != null) {
+            if (tracked.remove(reference)) {
+                leaks.increment();
+                outstanding.decrementAndGet();
+                logger.log(Level.SEVERE, "Pooled buffer was garbage collected without release",
+                        ((LeakReference) reference).allocation);
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getOversized() {
+        return oversized.sum();
+    }
+
+    public long getLeaks() {
+        return leaks.sum();
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{hits=" + getHits() + ", misses=" + getMisses() + ", oversized=" + getOversized()
+                + ", outstanding=" + getOutstanding() + ", leaks=" + getLeaks() + "}";
+    }
+}
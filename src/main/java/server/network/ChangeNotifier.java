@@ -0,0 +1,238 @@
+package server.network;
+
+import commons.network.Response;
+import server.metrics.Metrics;
+import server.network.codec.Codecs;
+import server.network.codec.MessageCodec;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Рассылка изменений коллекции подписанным клиентам.
+ * Изменения, пришедшие в течение короткого окна, объединяются в одно событие. Событие строится
+ * и кодируется один раз для каждой пары из известной клиентам версии и формата, после чего
+ * один и тот же массив байт отправляется всем клиентам группы.
+ * Подписка принадлежит сессии, токен которой клиент предъявил при подписке: продлить и снять ее можно
+ * только с тем же токеном. Подписка снимается, если клиент не присылал heartbeat дольше заданного времени
+ * или его сессия закрыта либо истекла.
+ */
+public final class ChangeNotifier {
+    private static final Logger logger = Logger.getLogger(ChangeNotifier.class.getName());
+
+    /**
+     * Событие изменения коллекции.
+     */
+    public static final class Event {
+        private final long version;
+        private final Response response;
+
+        public Event(long version, Response response) {
+            this.version = version;
+            this.response = response;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public Response getResponse() {
+            return response;
+        }
+    }
+
+    /**
+     * Построение события по версии коллекции, известной клиенту.
+     */
+    public interface EventSource {
+        Event since(long knownVersion);
+    }
+
+    /**
+     * Отправка закодированного события клиенту.
+     */
+    public interface Sender {
+        void send(byte[] payload, InetSocketAddress address, ClientState state);
+    }
+
+    private static final class Subscription {
+        private final ClientState state;
+        private final String token;
+        private volatile long lastHeartbeat = System.currentTimeMillis();
+
+        private Subscription(ClientState state, String token) {
+            this.state = state;
+            this.token = token;
+        }
+    }
+
+    private final ConcurrentHashMap<InetSocketAddress, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final EventSource source;
+    private final Sender sender;
+    private final ScheduledExecutorService scheduler;
+    private final Predicate<String> sessionValid;
+    private final long windowMillis;
+    private final long timeoutMillis;
+    private final Metrics metrics = Metrics.getInstance();
+    private volatile long latestVersion;
+
+    /**
+     * @param source        построение событий.
+     * @param sender        отправка событий.
+     * @param scheduler     планировщик, в потоке которого выполняется рассылка.
+     * @param sessionValid  проверка токена сессии, не продлевающая ее.
+     * @param windowMillis  окно объединения изменений в миллисекундах.
+     * @param timeoutMillis время жизни подписки без heartbeat в миллисекундах.
+     */
+    public ChangeNotifier(EventSource source, Sender sender, ScheduledExecutorService scheduler,
+                          Predicate<String> sessionValid, long windowMillis, long timeoutMillis) {
+        this.source = source;
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.sessionValid = sessionValid;
+        this.windowMillis = windowMillis;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Метод, подписывающий клиента. Версия коллекции, известная клиенту, берется из его состояния;
+     * если она уже устарела, клиент получит событие в ближайшей рассылке.
+     *
+     * @param address        адрес клиента.
+     * @param state          состояние клиента.
+     * @param token          токен сессии, предъявленный при подписке.
+     * @param currentVersion текущая версия коллекции.
+     */
+    public void subscribe(InetSocketAddress address, ClientState state, String token, long currentVersion) {
+        subscriptions.put(address, new Subscription(state, token));
+        if (state.isUpdateNeed(currentVersion))
+            changed(currentVersion);
+    }
+
+    /**
+     * Метод, продлевающий подписку клиента.
+     *
+     * @param address адрес клиента.
+     * @param token   токен сессии из запроса.
+     * @return True если клиент подписан с этим токеном.
+     */
+    public boolean heartbeat(InetSocketAddress address, String token) {
+        Subscription subscription = subscriptions.get(address);
+        if (subscription == null || !subscription.token.equals(token))
+            return false;
+        subscription.lastHeartbeat = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * @param address адрес клиента.
+     * @param token   токен сессии из запроса.
+     * @return True если подписка с этим токеном была.
+     */
+    public boolean unsubscribe(InetSocketAddress address, String token) {
+        Subscription subscription = subscriptions.get(address);
+        return subscription != null && subscription.token.equals(token) && subscriptions.remove(address, subscription);
+    }
+
+    /**
+     * Метод, снимающий все подписки закрытой сессии.
+     *
+     * @param token токен сессии.
+     */
+    public void revoke(String token) {
+        subscriptions.values().removeIf(subscription -> subscription.token.equals(token));
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Метод, сообщающий о новой версии коллекции. Рассылка начнется по истечении окна объединения.
+     *
+     * @param version новая версия коллекции.
+     */
+    public void changed(long version) {
+        if (version > latestVersion)
+            latestVersion = version;
+        if (!subscriptions.isEmpty() && flushScheduled.compareAndSet(false, true))
+            scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Метод, снимающий подписки клиентов, не присылавших heartbeat дольше допустимого, и подписки недействительных сессий.
+     */
+    public void expire() {
+        long border = System.currentTimeMillis() - timeoutMillis;
+        subscriptions.entrySet().removeIf(entry -> {
+            boolean expired = entry.getValue().lastHeartbeat < border || !sessionValid.test(entry.getValue().token);
+            if (expired)
+                logger.log(Level.FINE, "Subscription of " + entry.getKey() + " expired");
+            return expired;
+        });
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        expire();
+        long version = latestVersion;
+        Map<String, List<Map.Entry<InetSocketAddress, Subscription>>> groups = new HashMap<>();
+        for (Map.Entry<InetSocketAddress, Subscription> entry : subscriptions.entrySet()) {
+            ClientState state = entry.getValue().state;
+            if (state.getSyncedVersion() < version)
+                groups.computeIfAbsent(state.getSyncedVersion() + ":" + codecOf(state).getId(),
+                        key -> new ArrayList<>()).add(entry);
+        }
+        for (List<Map.Entry<InetSocketAddress, Subscription>> group : groups.values()) {
+            ClientState first = group.get(0).getValue().state;
+            try {
+                long start = System.nanoTime();
+                Event event = source.since(first.getSyncedVersion());
+                byte[] payload = encode(event.response, codecOf(first));
+                metrics.recordSince("push.encode", start);
+                metrics.recordSize("push", payload.length);
+                for (Map.Entry<InetSocketAddress, Subscription> entry : group) {
+                    entry.getValue().state.setSyncedVersion(event.version);
+                    sender.send(payload, entry.getKey(), entry.getValue().state);
+                }
+                metrics.increment("push.events");
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, "Unable to notify subscribers", e);
+            }
+        }
+    }
+
+    private static MessageCodec codecOf(ClientState state) {
+        return state.isReliable() ? state.getCodec() : Codecs.JAVA;
+    }
+
+    private static byte[] encode(Response response, MessageCodec codec) throws IOException {
+        PooledBuffer encoded = codec.encodeResponse(response);
+        try {
+            ByteBuffer buffer = encoded.buffer().duplicate();
+            byte[] payload = new byte[buffer.remaining()];
+            buffer.get(payload);
+            return payload;
+        } finally {
+            encoded.release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeNotifier{subscribers=" + subscriptions.size() + ", version=" + latestVersion + "}";
+    }
+}
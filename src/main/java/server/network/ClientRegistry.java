@@ -0,0 +1,33 @@
+package server.network;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Реестр состояний клиентов, различаемых по адресу отправителя.
+ */
+public final class ClientRegistry {
+    private final ConcurrentHashMap<InetSocketAddress, ClientState> clients = new ConcurrentHashMap<>();
+
+    /**
+     * Метод, возвращающий состояние клиента, при необходимости создавая его.
+     *
+     * @param clientAddress адрес клиента.
+     * @return Состояние клиента.
+     */
+    public ClientState get(InetSocketAddress clientAddress) {
+        ClientState state = clients.computeIfAbsent(clientAddress, address -> new ClientState());
+        state.touch();
+        return state;
+    }
+
+    /**
+     * Метод, удаляющий клиентов, не присылавших запросов дольше указанного времени.
+     *
+     * @param idleMillis допустимое время бездействия в миллисекундах.
+     */
+    public void evictIdle(long idleMillis) {
+        long border = System.currentTimeMillis() - idleMillis;
+        clients.values().removeIf(state -> state.getLastActivity() < border);
+    }
+}
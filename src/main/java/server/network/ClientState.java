@@ -0,0 +1,72 @@
+package server.network;
+
+import server.network.codec.Codecs;
+import server.network.codec.MessageCodec;
+
+/**
+ * Состояние синхронизации отдельного клиента.
+ */
+public final class ClientState {
+    /**
+     * Версия коллекции, которую клиент получил последней; -1, если клиент не получал коллекцию.
+     */
+    private volatile long syncedVersion = -1;
+    private volatile boolean deltaSync = false;
+    private volatile boolean reliable = false;
+    private volatile MessageCodec codec = Codecs.JAVA;
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    /**
+     * @param currentVersion текущая версия коллекции.
+     * @return True если клиенту нужно отправить обновленную коллекцию.
+     */
+    public boolean isUpdateNeed(long currentVersion) {
+        return syncedVersion != currentVersion;
+    }
+
+    public long getSyncedVersion() {
+        return syncedVersion;
+    }
+
+    public void setSyncedVersion(long syncedVersion) {
+        this.syncedVersion = syncedVersion;
+    }
+
+    /**
+     * @return True если клиент запрашивает разницу версий и не нуждается в коллекции в каждом ответе.
+     */
+    public boolean isDeltaSync() {
+        return deltaSync;
+    }
+
+    public void setDeltaSync(boolean deltaSync) {
+        this.deltaSync = deltaSync;
+    }
+
+    /**
+     * @return True если клиент использует надежный протокол и ждет ответ в виде кадров.
+     */
+    public boolean isReliable() {
+        return reliable;
+    }
+
+    public void setReliable(boolean reliable) {
+        this.reliable = reliable;
+    }
+
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(MessageCodec codec) {
+        this.codec = codec;
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    public void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+}
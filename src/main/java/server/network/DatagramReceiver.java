@@ -0,0 +1,149 @@
+package server.network;
+
+import commons.network.Request;
+import server.metrics.Metrics;
+import server.network.codec.Codecs;
+import server.network.codec.MessageCodec;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Цикл приема датаграмм на неблокирующем канале.
+ * Один поток ввода-вывода читает все датаграммы в переиспользуемый буфер,
+ * декодирует запросы и передает их обработчику, не дожидаясь выполнения команд.
+ * Кадры надежного протокола передаются {@link ReliableChannel}, остальные датаграммы
+ * считаются запросами клиентов старой версии.
+ */
+public final class DatagramReceiver implements Runnable {
+    /**
+     * Максимальный размер полезной нагрузки UDP-датаграммы.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+    private static final Logger logger = Logger.getLogger(DatagramReceiver.class.getName());
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final PooledBuffer pooledReceiveBuffer = BufferPool.getInstance().acquire(MAX_DATAGRAM_SIZE);
+    private final ByteBuffer receiveBuffer = pooledReceiveBuffer.buffer();
+    private final Consumer<ReceivedRequest> handler;
+    private final Metrics metrics = Metrics.getInstance();
+    private final ReliableChannel reliableChannel;
+    private final long selectTimeout;
+    private volatile boolean running = true;
+
+    /**
+     * @param channel       канал, с которого принимаются датаграммы.
+     * @param handler       обработчик декодированных запросов.
+     * @param reliableChannel канал надежной доставки, которому передаются кадры протокола.
+     * @param selectTimeout время ожидания датаграммы в миллисекундах до записи о тайм-ауте.
+     */
+    public DatagramReceiver(DatagramChannel channel, Consumer<ReceivedRequest> handler, ReliableChannel reliableChannel,
+                            long selectTimeout) throws IOException {
+        this.channel = channel;
+        this.handler = handler;
+        this.reliableChannel = reliableChannel;
+        this.selectTimeout = selectTimeout;
+        this.selector = Selector.open();
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                if (selector.select(selectTimeout) == 0) {
+                    if (running)
+                        logger.log(Level.SEVERE, "Timeout is reached");
+                    continue;
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable())
+                        drain();
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Unexpected issue occured", e);
+            }
+        }
+        pooledReceiveBuffer.release();
+    }
+
+    /**
+     * Вычитывает все датаграммы, накопившиеся в канале.
+     */
+    private void drain() {
+        while (true) {
+            Request request;
+            InetSocketAddress clientAddress = null;
+            boolean reliable;
+            MessageCodec codec = Codecs.JAVA;
+            String token = null;
+            try {
+                receiveBuffer.clear();
+                long start = System.nanoTime();
+                clientAddress = (InetSocketAddress) channel.receive(receiveBuffer);
+                if (clientAddress == null)
+                    return;
+                metrics.recordSince("receive", start);
+                receiveBuffer.flip();
+                metrics.recordSize("datagram", receiveBuffer.remaining());
+                reliable = Frame.isFrame(receiveBuffer);
+                if (reliable) {
+                    byte flags = Frame.peekFlags(receiveBuffer);
+                    codec = Codecs.forId((byte) (flags & Frame.CODEC_MASK));
+                    PooledBuffer message = reliableChannel.receive(receiveBuffer, clientAddress);
+                    if (message == null)
+                        continue;
+                    long decodeStart = System.nanoTime();
+                    try {
+                        metrics.recordSize("request", message.buffer().remaining());
+                        if ((flags & Frame.TOKEN) != 0)
+                            token = Frame.readToken(message.buffer());
+                        request = codec.decodeRequest(message.buffer());
+                    } finally {
+                        message.release();
+                    }
+                    metrics.recordSince("deserialize", decodeStart);
+                } else {
+                    long decodeStart = System.nanoTime();
+                    metrics.recordSize("request", receiveBuffer.remaining());
+                    request = Codecs.JAVA.decodeRequest(receiveBuffer);
+                    metrics.recordSince("deserialize", decodeStart);
+                }
+            } catch (IOException e) {
+                if (clientAddress == null) {
+                    logger.log(Level.SEVERE, "An I/O Exception has occurred", e);
+                    return;
+                }
+                logger.log(Level.WARNING, "Undecodable request from " + clientAddress + " dropped", e);
+                continue;
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Malformed datagram dropped", e);
+                continue;
+            }
+            if (request == null)
+                continue;
+            logger.log(Level.FINE, "Received command from client " + clientAddress);
+            handler.accept(new ReceivedRequest(request, clientAddress, reliable, codec, token));
+        }
+    }
+
+    /**
+     * Останавливает цикл приема.
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+}
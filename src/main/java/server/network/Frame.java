@@ -0,0 +1,157 @@
+package server.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Формат кадра надежного протокола поверх UDP.
+ * <pre>
+ * magic (4) | type (1) | flags (1) | messageId (4) | fragmentIndex (4) | fragmentCount (4) | payload
+ * </pre>
+ * Кадр DATA несет фрагмент сообщения, кадр ACK подтверждает получение фрагмента с указанным номером.
+ * Все фрагменты сообщения, кроме последнего, содержат ровно {@link #MAX_PAYLOAD} байт.
+ * Младшие биты поля flags кадра DATA ({@link #CODEC_MASK}) содержат идентификатор формата сообщений:
+ * в запросе - формат, в котором клиент ждет ответы, в ответе - формат самого ответа.
+ * Флаг {@link #TOKEN} в запросе означает, что сообщение начинается с токена сессии:
+ * длина (1 байт) и сам токен в ASCII, а за ним следует запрос в указанном формате.
+ */
+public final class Frame {
+    public static final int MAGIC = 0x4C384450;
+    public static final byte DATA = 1;
+    public static final byte ACK = 2;
+    /**
+     * Биты флагов с идентификатором формата сообщений.
+     */
+    public static final byte CODEC_MASK = 0x0F;
+    /**
+     * Флаг запроса, начинающегося с токена сессии.
+     */
+    public static final byte TOKEN = 0x10;
+    /**
+     * Наибольшая длина токена сессии в запросе.
+     */
+    public static final int MAX_TOKEN = 255;
+    public static final int HEADER_SIZE = 18;
+    /**
+     * Размер кадра, не превышающий MTU типичной сети.
+     */
+    public static final int FRAME_SIZE = 1400;
+    public static final int MAX_PAYLOAD = FRAME_SIZE - HEADER_SIZE;
+
+    private final byte type;
+    private final byte flags;
+    private final int messageId;
+    private final int fragmentIndex;
+    private final int fragmentCount;
+
+    private Frame(byte type, byte flags, int messageId, int fragmentIndex, int fragmentCount) {
+        this.type = type;
+        this.flags = flags;
+        this.messageId = messageId;
+        this.fragmentIndex = fragmentIndex;
+        this.fragmentCount = fragmentCount;
+    }
+
+    /**
+     * Метод, проверяющий, начинается ли датаграмма с заголовка кадра.
+     *
+     * @param datagram датаграмма, подготовленная к чтению.
+     * @return True если датаграмма является кадром протокола, иначе false.
+     */
+    public static boolean isFrame(ByteBuffer datagram) {
+        return datagram.remaining() >= HEADER_SIZE && datagram.getInt(datagram.position()) == MAGIC;
+    }
+
+    /**
+     * Метод, возвращающий флаги кадра без изменения позиции буфера.
+     *
+     * @param datagram датаграмма, подготовленная к чтению.
+     * @return Флаги кадра.
+     */
+    public static byte peekFlags(ByteBuffer datagram) {
+        return datagram.get(datagram.position() + 5);
+    }
+
+    /**
+     * Метод, читающий заголовок кадра. После вызова позиция буфера указывает на полезную нагрузку.
+     *
+     * @param datagram датаграмма, подготовленная к чтению.
+     * @return Заголовок кадра или null, если заголовок некорректен.
+     */
+    public static Frame readHeader(ByteBuffer datagram) {
+        datagram.getInt();
+        byte type = datagram.get();
+        byte flags = datagram.get();
+        int messageId = datagram.getInt();
+        int fragmentIndex = datagram.getInt();
+        int fragmentCount = datagram.getInt();
+        if ((type != DATA && type != ACK) || fragmentCount <= 0 || fragmentIndex < 0 || fragmentIndex >= fragmentCount)
+            return null;
+        return new Frame(type, flags, messageId, fragmentIndex, fragmentCount);
+    }
+
+    /**
+     * Метод, записывающий заголовок кадра в буфер.
+     */
+    public static void writeHeader(ByteBuffer buffer, byte type, byte flags, int messageId, int fragmentIndex, int fragmentCount) {
+        buffer.putInt(MAGIC);
+        buffer.put(type);
+        buffer.put(flags);
+        buffer.putInt(messageId);
+        buffer.putInt(fragmentIndex);
+        buffer.putInt(fragmentCount);
+    }
+
+    /**
+     * Метод, записывающий токен сессии перед запросом.
+     *
+     * @param buffer буфер сообщения.
+     * @param token  токен сессии не длиннее {@link #MAX_TOKEN} символов ASCII.
+     */
+    public static void writeToken(ByteBuffer buffer, String token) {
+        byte[] bytes = token.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length > MAX_TOKEN)
+            throw new IllegalArgumentException("Session token is too long");
+        buffer.put((byte) bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Метод, читающий токен сессии из начала сообщения. После вызова позиция буфера указывает на запрос.
+     *
+     * @param message сообщение, подготовленное к чтению.
+     * @return Токен сессии.
+     * @throws IOException если сообщение короче объявленного токена.
+     */
+    public static String readToken(ByteBuffer message) throws IOException {
+        if (!message.hasRemaining())
+            throw new IOException("Session token is missing");
+        int length = message.get() & 0xFF;
+        if (message.remaining() < length)
+            throw new IOException("Session token is truncated");
+        byte[] bytes = new byte[length];
+        message.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    public int getFragmentIndex() {
+        return fragmentIndex;
+    }
+
+    public int getFragmentCount() {
+        return fragmentCount;
+    }
+}
@@ -0,0 +1,31 @@
+package server.network;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Ключ сообщения надежного протокола: адрес собеседника и номер сообщения.
+ */
+final class MessageKey {
+    private final InetSocketAddress address;
+    private final int messageId;
+
+    MessageKey(InetSocketAddress address, int messageId) {
+        this.address = address;
+        this.messageId = messageId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof MessageKey))
+            return false;
+        MessageKey other = (MessageKey) o;
+        return messageId == other.messageId && address.equals(other.address);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * address.hashCode() + messageId;
+    }
+}
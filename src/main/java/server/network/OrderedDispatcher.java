@@ -0,0 +1,71 @@
+package server.network;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Диспетчер задач, выполняющий задачи с разными ключами параллельно,
+ * а задачи с одним ключом - строго по очереди в порядке поступления.
+ */
+public final class OrderedDispatcher {
+    private static final Logger logger = Logger.getLogger(OrderedDispatcher.class.getName());
+    private final Executor executor;
+    private final ConcurrentHashMap<Object, Queue<Runnable>> queues = new ConcurrentHashMap<>();
+
+    public OrderedDispatcher(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Метод, ставящий задачу в очередь ключа.
+     *
+     * @param key  ключ очереди, например адрес клиента.
+     * @param task задача.
+     */
+    public void dispatch(Object key, Runnable task) {
+        boolean[] idle = new boolean[1];
+        Queue<Runnable> queue = queues.compute(key, (k, q) -> {
+            if (q == null) {
+                q = new ConcurrentLinkedQueue<>();
+                idle[0] = true;
+            }
+            q.add(task);
+            return q;
+        });
+        if (idle[0])
+            schedule(key, queue);
+    }
+
+    private void schedule(Object key, Queue<Runnable> queue) {
+        try {
+            executor.execute(() -> runNext(key, queue));
+        } catch (RejectedExecutionException e) {
+            logger.log(Level.WARNING, "Task rejected, dropping queue of " + key, e);
+            queues.remove(key);
+        }
+    }
+
+    private void runNext(Object key, Queue<Runnable> queue) {
+        try {
+            queue.peek().run();
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "An Exception has occurred while processing a request", e);
+        } finally {
+            boolean[] more = new boolean[1];
+            queues.compute(key, (k, q) -> {
+                q.poll();
+                if (q.isEmpty())
+                    return null;
+                more[0] = true;
+                return q;
+            });
+            if (more[0])
+                schedule(key, queue);
+        }
+    }
+}
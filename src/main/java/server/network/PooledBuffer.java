@@ -0,0 +1,47 @@
+package server.network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Буфер, взятый из {@link BufferPool}. После использования должен быть возвращен вызовом {@link #release()}.
+ */
+public final class PooledBuffer {
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    private final int sizeClass;
+    private final AtomicBoolean released = new AtomicBoolean();
+    Object leakReference;
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeClass) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+    }
+
+    /**
+     * Метод, оборачивающий массив в буфер вне пула; его возврат ничего не делает.
+     *
+     * @param data данные.
+     * @return Буфер, подготовленный к чтению.
+     */
+    public static PooledBuffer wrap(byte[] data) {
+        return new PooledBuffer(null, ByteBuffer.wrap(data), -1);
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    int getSizeClass() {
+        return sizeClass;
+    }
+
+    /**
+     * Метод, возвращающий буфер в пул. Повторный возврат игнорируется.
+     */
+    public void release() {
+        if (released.compareAndSet(false, true) && pool != null)
+            pool.release(this);
+    }
+}
@@ -0,0 +1,230 @@
+package server.network;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Сборщик сообщений из фрагментов надежного протокола.
+ * Каждый фрагмент копируется в буфер своего размера из {@link BufferPool}, и память сборки растет
+ * только вместе с полученными фрагментами; сообщение склеивается, когда пришел последний недостающий.
+ * Число незавершенных сборок ограничено для каждого клиента и в целом, объем их фрагментов - в целом:
+ * фрагмент сверх ограничений отбрасывается без подтверждения, и отправитель повторит его позже.
+ * Повторно пришедшие фрагменты уже собранного сообщения отбрасываются.
+ */
+final class Reassembler {
+    /**
+     * Наибольшее число фрагментов в одном входящем сообщении.
+     */
+    static final int MAX_FRAGMENTS = 1024;
+    /**
+     * Отметка фрагмента, который уже был получен: его нужно подтвердить еще раз, но не сохранять.
+     */
+    private static final Partial DUPLICATE = new Partial(null, 0);
+    private final int maxPartials;
+    private final int maxPartialsPerClient;
+    private final long maxBufferedBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<MessageKey, Partial> partials = new HashMap<>();
+    private final Map<InetSocketAddress, Integer> clientPartials = new HashMap<>();
+    private final Map<MessageKey, Long> completed = new HashMap<>();
+    private long bufferedBytes;
+    private long dropped;
+
+    private static final class Partial {
+        private final InetSocketAddress address;
+        private final int fragmentCount;
+        private final BitSet received = new BitSet();
+        private final long createdAt = System.currentTimeMillis();
+        private PooledBuffer[] fragments = new PooledBuffer[1];
+        private int receivedCount;
+        private int length;
+
+        private Partial(InetSocketAddress address, int fragmentCount) {
+            this.address = address;
+            this.fragmentCount = fragmentCount;
+        }
+
+        private void put(int index, PooledBuffer fragment) {
+            if (index >= fragments.length)
+                fragments = Arrays.copyOf(fragments, Math.min(fragmentCount, Math.max(index + 1, fragments.length * 2)));
+            fragments[index] = fragment;
+            received.set(index);
+            receivedCount++;
+            length += fragment.buffer().remaining();
+        }
+
+        private void release() {
+            for (PooledBuffer fragment : fragments)
+                if (fragment != null)
+                    fragment.release();
+        }
+    }
+
+    /**
+     * @param maxPartials          наибольшее число незавершенных сборок.
+     * @param maxPartialsPerClient наибольшее число незавершенных сборок одного клиента.
+     * @param maxBufferedBytes     наибольший объем фрагментов незавершенных сборок.
+     */
+    Reassembler(int maxPartials, int maxPartialsPerClient, long maxBufferedBytes) {
+        this.maxPartials = maxPartials;
+        this.maxPartialsPerClient = maxPartialsPerClient;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * Метод, принимающий фрагмент сообщения.
+     *
+     * @param address     адрес отправителя.
+     * @param frame       заголовок кадра.
+     * @param payload     полезная нагрузка кадра.
+     * @param acknowledge вызывается, если фрагмент принят или уже был получен, то есть его можно подтвердить.
+     * @return Собранное сообщение, подготовленное к чтению, если этот фрагмент был последним недостающим,
+     * иначе null. Буфер сообщения возвращается в пул получателем.
+     */
+    PooledBuffer accept(InetSocketAddress address, Frame frame, ByteBuffer payload, Runnable acknowledge) {
+        int index = frame.getFragmentIndex();
+        int count = frame.getFragmentCount();
+        boolean last = index == count - 1;
+        if (count > MAX_FRAGMENTS || payload.remaining() > Frame.MAX_PAYLOAD
+                || (!last && payload.remaining() != Frame.MAX_PAYLOAD))
+            return null;
+        MessageKey key = new MessageKey(address, frame.getMessageId());
+        Partial partial = take(key, address, index, count, payload);
+        if (partial == null)
+            return null;
+        acknowledge.run();
+        if (partial == DUPLICATE || partial.receivedCount < count)
+            return null;
+        PooledBuffer message = BufferPool.getInstance().acquire(partial.length);
+        for (PooledBuffer fragment : partial.fragments)
+            message.buffer().put(fragment.buffer());
+        partial.release();
+        message.buffer().flip();
+        return message;
+    }
+
+    /**
+     * Сохраняет фрагмент в сборке.
+     *
+     * @return Сборка, в которую попал фрагмент (уже убранная из учета, если она завершена),
+     * {@link #DUPLICATE} для уже полученного фрагмента или null, если фрагмент отброшен.
+     */
+    private Partial take(MessageKey key, InetSocketAddress address, int index, int count, ByteBuffer payload) {
+        lock.lock();
+        try {
+            if (completed.containsKey(key))
+                return DUPLICATE;
+            Partial partial = partials.get(key);
+            if (partial == null) {
+                int ofClient = clientPartials.getOrDefault(address, 0);
+                if (partials.size() >= maxPartials || ofClient >= maxPartialsPerClient) {
+                    dropped++;
+                    return null;
+                }
+                partial = new Partial(address, count);
+                partials.put(key, partial);
+                clientPartials.put(address, ofClient + 1);
+            }
+            if (partial.fragmentCount != count)
+                return null;
+            if (partial.received.get(index))
+                return DUPLICATE;
+            if (bufferedBytes + payload.remaining() > maxBufferedBytes) {
+                dropped++;
+                if (partial.receivedCount == 0)
+                    remove(key, partial);
+                return null;
+            }
+            PooledBuffer fragment = BufferPool.getInstance().acquire(payload.remaining());
+            fragment.buffer().put(payload).flip();
+            partial.put(index, fragment);
+            bufferedBytes += fragment.buffer().remaining();
+            if (partial.receivedCount == count) {
+                remove(key, partial);
+                completed.put(key, System.currentTimeMillis());
+            }
+            return partial;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Убирает сборку из учета; буферы фрагментов освобождает вызывающий.
+     */
+    private void remove(MessageKey key, Partial partial) {
+        partials.remove(key);
+        forget(partial);
+    }
+
+    private void forget(Partial partial) {
+        bufferedBytes -= partial.length;
+        clientPartials.computeIfPresent(partial.address, (address, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Метод, удаляющий незавершенные сборки и записи о собранных сообщениях старше указанного времени.
+     *
+     * @param maxAgeMillis время жизни записи в миллисекундах.
+     */
+    void expire(long maxAgeMillis) {
+        long border = System.currentTimeMillis() - maxAgeMillis;
+        lock.lock();
+        try {
+            Iterator<Map.Entry<MessageKey, Partial>> iterator = partials.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Partial partial = iterator.next().getValue();
+                if (partial.createdAt < border) {
+                    iterator.remove();
+                    forget(partial);
+                    partial.release();
+                }
+            }
+            completed.values().removeIf(time -> time < border);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Число фрагментов, отброшенных из-за ограничений.
+     */
+    long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Число незавершенных сборок.
+     */
+    int getPartials() {
+        lock.lock();
+        try {
+            return partials.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Объем фрагментов незавершенных сборок.
+     */
+    long getBufferedBytes() {
+        lock.lock();
+        try {
+            return bufferedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
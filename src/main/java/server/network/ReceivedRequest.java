@@ -0,0 +1,55 @@
+package server.network;
+
+import commons.network.Request;
+import server.network.codec.MessageCodec;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Запрос клиента вместе с адресом, с которого он был получен, и токеном сессии, если клиент его предъявил.
+ */
+public final class ReceivedRequest {
+    private final Request request;
+    private final InetSocketAddress clientAddress;
+    private final boolean reliable;
+    private final MessageCodec codec;
+    private final String token;
+
+    public ReceivedRequest(Request request, InetSocketAddress clientAddress, boolean reliable, MessageCodec codec,
+                           String token) {
+        this.request = request;
+        this.clientAddress = clientAddress;
+        this.reliable = reliable;
+        this.codec = codec;
+        this.token = token;
+    }
+
+    public Request getRequest() {
+        return request;
+    }
+
+    public InetSocketAddress getClientAddress() {
+        return clientAddress;
+    }
+
+    /**
+     * @return True если запрос пришел по надежному протоколу.
+     */
+    public boolean isReliable() {
+        return reliable;
+    }
+
+    /**
+     * @return Формат, в котором клиент ждет ответы.
+     */
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return Токен сессии из запроса или null, если клиент его не передал.
+     */
+    public String getToken() {
+        return token;
+    }
+}
@@ -0,0 +1,221 @@
+package server.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Надежная доставка сообщений поверх UDP: нумерация сообщений, разбиение на фрагменты
+ * размером с MTU, подтверждение каждого фрагмента, повторная отправка по тайм-ауту
+ * и сборка входящих сообщений.
+ */
+public final class ReliableChannel {
+    private static final Logger logger = Logger.getLogger(ReliableChannel.class.getName());
+    /**
+     * Число неподтвержденных фрагментов, которые можно отправить, не дожидаясь подтверждений.
+     */
+    private static final int WINDOW = 32;
+    private static final long INITIAL_TIMEOUT = 200;
+    private static final long MAX_TIMEOUT = 2000;
+    private static final int MAX_RETRIES = 8;
+    private final DatagramChannel channel;
+    private final ScheduledExecutorService scheduler;
+    private final Reassembler reassembler = new Reassembler(
+            Integer.getInteger("server.reliable.maxPartials", 1024),
+            Integer.getInteger("server.reliable.maxPartialsPerClient", 8),
+            Long.getLong("server.reliable.maxBufferedBytes", 64L * 1024 * 1024));
+    private final Map<MessageKey, OutgoingMessage> outgoing = new ConcurrentHashMap<>();
+    private final AtomicInteger messageIds = new AtomicInteger();
+
+    public ReliableChannel(DatagramChannel channel, ScheduledExecutorService scheduler) {
+        this.channel = channel;
+        this.scheduler = scheduler;
+        scheduler.scheduleWithFixedDelay(() -> reassembler.expire(TimeUnit.SECONDS.toMillis(30)),
+                30, 30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Метод, отправляющий сообщение с гарантией доставки.
+     *
+     * @param message сообщение, подготовленное к чтению; канал возвращает его в пул по завершении доставки.
+     * @param address адрес получателя.
+     * @param flags   флаги кадров сообщения.
+     * @return Результат доставки: true, если получатель подтвердил все фрагменты.
+     */
+    public CompletableFuture<Boolean> send(PooledBuffer message, InetSocketAddress address, byte flags) {
+        int messageId = messageIds.incrementAndGet();
+        OutgoingMessage outgoingMessage = new OutgoingMessage(new MessageKey(address, messageId), address, messageId,
+                message, flags);
+        outgoing.put(outgoingMessage.key, outgoingMessage);
+        outgoingMessage.pump();
+        scheduler.schedule(outgoingMessage::onTimer, INITIAL_TIMEOUT, TimeUnit.MILLISECONDS);
+        return outgoingMessage.completion;
+    }
+
+    /**
+     * Метод, обрабатывающий принятый кадр: подтверждение или фрагмент входящего сообщения.
+     *
+     * @param datagram датаграмма, подготовленная к чтению.
+     * @param address  адрес отправителя.
+     * @return Собранное входящее сообщение или null, если сообщение еще не получено целиком.
+     * Буфер сообщения возвращается в пул получателем.
+     */
+    public PooledBuffer receive(ByteBuffer datagram, InetSocketAddress address) {
+        Frame frame = Frame.readHeader(datagram);
+        if (frame == null)
+            return null;
+        if (frame.getType() == Frame.ACK) {
+            OutgoingMessage message = outgoing.get(new MessageKey(address, frame.getMessageId()));
+            if (message != null)
+                message.onAck(frame.getFragmentIndex());
+            return null;
+        }
+        if (frame.getFragmentCount() > Reassembler.MAX_FRAGMENTS)
+            return null;
+        return reassembler.accept(address, frame, datagram, () -> sendAck(frame, address));
+    }
+
+    private void sendAck(Frame frame, InetSocketAddress address) {
+        PooledBuffer ack = BufferPool.getInstance().acquire(Frame.HEADER_SIZE);
+        Frame.writeHeader(ack.buffer(), Frame.ACK, (byte) 0, frame.getMessageId(), frame.getFragmentIndex(), frame.getFragmentCount());
+        ack.buffer().flip();
+        transmit(ack, address);
+    }
+
+    /**
+     * Отправляет кадр и возвращает его буфер в пул.
+     */
+    private void transmit(PooledBuffer frame, InetSocketAddress address) {
+        try {
+            channel.send(frame.buffer(), address);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to send a frame to " + address, e);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Исходящее сообщение, ожидающее подтверждения фрагментов.
+     */
+    private final class OutgoingMessage {
+        private final MessageKey key;
+        private final InetSocketAddress address;
+        private final int messageId;
+        private final PooledBuffer pooledMessage;
+        private final ByteBuffer message;
+        private final byte flags;
+        private final int fragmentCount;
+        private final boolean[] acked;
+        private final long[] sentAt;
+        private final CompletableFuture<Boolean> completion = new CompletableFuture<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private int ackedCount;
+        private int base;
+        private int next;
+        private int retries;
+        private long timeout = INITIAL_TIMEOUT;
+
+        private OutgoingMessage(MessageKey key, InetSocketAddress address, int messageId, PooledBuffer message, byte flags) {
+            this.key = key;
+            this.address = address;
+            this.messageId = messageId;
+            this.pooledMessage = message;
+            this.message = message.buffer().slice();
+            this.flags = flags;
+            this.fragmentCount = Math.max(1, (this.message.remaining() + Frame.MAX_PAYLOAD - 1) / Frame.MAX_PAYLOAD);
+            this.acked = new boolean[fragmentCount];
+            this.sentAt = new long[fragmentCount];
+        }
+
+        /**
+         * Отправляет очередные фрагменты в пределах окна.
+         */
+        private void pump() {
+            lock.lock();
+            try {
+                while (next < fragmentCount && next - base < WINDOW)
+                    transmitFragment(next++);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void transmitFragment(int index) {
+            int offset = index * Frame.MAX_PAYLOAD;
+            int length = Math.min(Frame.MAX_PAYLOAD, message.limit() - offset);
+            ByteBuffer fragment = message.duplicate();
+            fragment.position(offset);
+            fragment.limit(offset + length);
+            PooledBuffer frame = BufferPool.getInstance().acquire(Frame.HEADER_SIZE + length);
+            Frame.writeHeader(frame.buffer(), Frame.DATA, flags, messageId, index, fragmentCount);
+            frame.buffer().put(fragment);
+            frame.buffer().flip();
+            sentAt[index] = System.currentTimeMillis();
+            transmit(frame, address);
+        }
+
+        private void onAck(int index) {
+            lock.lock();
+            try {
+                if (index >= fragmentCount || acked[index])
+                    return;
+                acked[index] = true;
+                ackedCount++;
+                retries = 0;
+                while (base < fragmentCount && acked[base])
+                    base++;
+                if (ackedCount == fragmentCount) {
+                    finish(true);
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            pump();
+        }
+
+        private void finish(boolean delivered) {
+            outgoing.remove(key);
+            pooledMessage.release();
+            completion.complete(delivered);
+        }
+
+        private void onTimer() {
+            lock.lock();
+            try {
+                if (completion.isDone())
+                    return;
+                long now = System.currentTimeMillis();
+                boolean retransmitted = false;
+                for (int i = base; i < next; i++) {
+                    if (!acked[i] && now - sentAt[i] >= timeout) {
+                        transmitFragment(i);
+                        retransmitted = true;
+                    }
+                }
+                if (retransmitted) {
+                    if (++retries > MAX_RETRIES) {
+                        logger.log(Level.WARNING, "Delivery to " + address + " failed, message " + messageId + " dropped");
+                        finish(false);
+                        return;
+                    }
+                    timeout = Math.min(timeout * 2, MAX_TIMEOUT);
+                }
+            } finally {
+                lock.unlock();
+            }
+            scheduler.schedule(this::onTimer, timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+}
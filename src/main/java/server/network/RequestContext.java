@@ -0,0 +1,41 @@
+package server.network;
+
+import commons.app.User;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Контекст обработки одного запроса: адрес для ответа, пользователь, токен сессии из запроса и состояние клиента.
+ */
+public final class RequestContext {
+    private final InetSocketAddress clientAddress;
+    private final User user;
+    private final String token;
+    private final ClientState clientState;
+
+    public RequestContext(InetSocketAddress clientAddress, User user, String token, ClientState clientState) {
+        this.clientAddress = clientAddress;
+        this.user = user;
+        this.token = token;
+        this.clientState = clientState;
+    }
+
+    public InetSocketAddress getClientAddress() {
+        return clientAddress;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * @return Токен сессии, переданный в этом запросе, или null.
+     */
+    public String getToken() {
+        return token;
+    }
+
+    public ClientState getClientState() {
+        return clientState;
+    }
+}
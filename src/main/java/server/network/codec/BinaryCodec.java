@@ -0,0 +1,310 @@
+package server.network.codec;
+
+import commons.elements.OrganizationType;
+import commons.elements.Position;
+import commons.elements.Status;
+import commons.elements.Worker;
+import commons.network.Request;
+import commons.network.Response;
+import commons.network.ResponseCode;
+import server.network.PooledBuffer;
+import server.utils.CommonsObjects;
+import server.utils.WorkerFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Компактный двоичный формат сообщений со схемой фиксированного порядка полей.
+ * <pre>
+ * request:  version(1) | name | argument | login | password | objectKind(1) | object
+ *           objectKind: 0 - нет объекта, 1 - worker, 2 - пакет: requestCount(varint) | request...
+ * response: version(1) | code(string) | body(string) | argCount(varint, 0 - null) | args(string...) | workerCount(varint) | worker...
+ * worker:   id(zigzag) | name | x | y | salary | endDate | creationDate | position | status
+ *           | organization | orgType | annualTurnover | street | postalCode
+ * </pre>
+ * Числовые поля объекта записываются значением с тегом типа, остальные - строками; даты - в формате
+ * yyyy-MM-dd и {@link WorkerFactory#CREATION_DATE}, перечисления - именами констант.
+ * Запрос, начинающийся с заголовка потока сериализации Java, декодируется как в {@link JavaSerializationCodec}.
+ * Запросы и объекты собираются конструкторами модели через {@link CommonsObjects}; если их нет,
+ * запрос в этом формате отклоняется как недекодируемый.
+ */
+final class BinaryCodec implements MessageCodec {
+    private static final int FORMAT_VERSION = 1;
+    private static final int TAG_NULL = 0;
+    private static final int TAG_LONG = 1;
+    private static final int TAG_DOUBLE = 2;
+    private static final int TAG_STRING = 3;
+    private static final int OBJECT_NONE = 0;
+    private static final int OBJECT_WORKER = 1;
+    private static final int OBJECT_BATCH = 2;
+    private static final short JAVA_STREAM_MAGIC = (short) 0xACED;
+    private static final int INITIAL_CAPACITY = 4096;
+
+    @Override
+    public byte getId() {
+        return 1;
+    }
+
+    @Override
+    public Request decodeRequest(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() >= 2 && buffer.getShort(buffer.position()) == JAVA_STREAM_MAGIC)
+            return Codecs.JAVA.decodeRequest(buffer);
+        BinaryReader reader = new BinaryReader(buffer);
+        try {
+            return readRequest(reader, true);
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new IOException("Malformed binary request", e);
+        } catch (IllegalStateException e) {
+            throw new IOException("Binary request cannot be built with this model library", e);
+        }
+    }
+
+    private static Request readRequest(BinaryReader reader, boolean batchAllowed) throws IOException {
+        int version = reader.readByte();
+        if (version != FORMAT_VERSION)
+            throw new IOException("Unsupported binary request version " + version);
+        String name = reader.readString();
+        String argument = reader.readString();
+        String login = reader.readString();
+        String password = reader.readString();
+        Serializable object;
+        int kind = reader.readByte();
+        if (kind == OBJECT_NONE) {
+            object = null;
+        } else if (kind == OBJECT_WORKER) {
+            object = readWorker(reader);
+        } else if (kind == OBJECT_BATCH && batchAllowed) {
+            int count = reader.readCount();
+            ArrayList<Request> requests = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                requests.add(readRequest(reader, false));
+            object = requests;
+        } else throw new IOException("Unsupported request object kind " + kind);
+        return CommonsObjects.request(name, argument, object, login == null ? null : CommonsObjects.user(login, password));
+    }
+
+    static Worker readWorker(BinaryReader reader) throws IOException {
+        long id = reader.readZigZag();
+        String name = reader.readString();
+        Object x = readValue(reader);
+        Object y = readValue(reader);
+        Object salary = readValue(reader);
+        String endDate = readText(reader);
+        String creationDate = readText(reader);
+        String position = readText(reader);
+        String status = readText(reader);
+        String organization = readText(reader);
+        String organizationType = readText(reader);
+        String annualTurnover = readText(reader);
+        String street = readText(reader);
+        String postalCode = readText(reader);
+        if (x == null)
+            throw new IOException("Worker has no x coordinate");
+        return WorkerFactory.create(id, name, toLong(x), toInteger(y), toInteger(salary),
+                endDate == null ? null : LocalDate.parse(endDate),
+                creationDate == null ? ZonedDateTime.now() : ZonedDateTime.parse(creationDate, WorkerFactory.CREATION_DATE),
+                position == null ? null : Position.valueOf(position),
+                status == null ? null : Status.valueOf(status), organization,
+                organizationType == null ? null : OrganizationType.valueOf(organizationType),
+                annualTurnover == null ? null : Integer.valueOf(annualTurnover), street, postalCode);
+    }
+
+    /**
+     * Читает строковое поле объекта; строка "null", как в файле коллекции, означает отсутствие значения.
+     */
+    private static String readText(BinaryReader reader) throws IOException {
+        String text = reader.readString();
+        return text == null || text.equals("null") ? null : text;
+    }
+
+    private static Object readValue(BinaryReader reader) throws IOException {
+        int tag = reader.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_LONG:
+                return reader.readZigZag();
+            case TAG_DOUBLE:
+                return reader.readDouble();
+            case TAG_STRING:
+                return reader.readString();
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Long)
+            return (Long) value;
+        if (value instanceof Double && (Double) value == Math.rint((Double) value))
+            return ((Double) value).longValue();
+        return Long.parseLong(String.valueOf(value));
+    }
+
+    private static Integer toInteger(Object value) {
+        if (value == null)
+            return null;
+        long result = toLong(value);
+        if (result != (int) result)
+            throw new IllegalArgumentException("Value " + result + " is out of the integer range");
+        return (int) result;
+    }
+
+    @Override
+    public PooledBuffer encodeResponse(Response response) {
+        BinaryWriter writer = new BinaryWriter(INITIAL_CAPACITY);
+        try {
+            write(writer, response);
+        } catch (RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+        return writer.finish();
+    }
+
+    private static void write(BinaryWriter writer, Response response) {
+        writer.writeByte(FORMAT_VERSION);
+        writer.writeString(response.getResponseCode() == null ? null : response.getResponseCode().name());
+        writer.writeString(response.getResponseBody());
+        writeArgs(writer, response.getResponseBodyArgs());
+        Collection<Worker> workers = response.getWorkers();
+        if (workers == null)
+            workers = Collections.emptySet();
+        writer.writeVarLong(workers.size());
+        for (Worker worker : workers)
+            writeWorker(writer, worker);
+    }
+
+    @Override
+    public PooledBuffer encodeRequest(String name, String argument, Serializable object, String login, String password) {
+        BinaryWriter writer = new BinaryWriter(INITIAL_CAPACITY);
+        try {
+            writeRequest(writer, name, argument, object, login, password, true);
+        } catch (RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+        return writer.finish();
+    }
+
+    /**
+     * Запросы пакета записываются с логином и паролем всего пакета.
+     */
+    private static void writeRequest(BinaryWriter writer, String name, String argument, Serializable object,
+                                     String login, String password, boolean batchAllowed) {
+        writer.writeByte(FORMAT_VERSION);
+        writer.writeString(name);
+        writer.writeString(argument);
+        writer.writeString(login);
+        writer.writeString(password);
+        if (object == null) {
+            writer.writeByte(OBJECT_NONE);
+        } else if (object instanceof Worker) {
+            writer.writeByte(OBJECT_WORKER);
+            writeWorker(writer, (Worker) object);
+        } else if (object instanceof List && batchAllowed) {
+            List<?> requests = (List<?>) object;
+            writer.writeByte(OBJECT_BATCH);
+            writer.writeVarLong(requests.size());
+            for (Object element : requests) {
+                Request request = (Request) element;
+                writeRequest(writer, request.getCommandName(), request.getCommandStringArgument(),
+                        request.getCommandObjectArgument(), login, password, false);
+            }
+        } else throw new IllegalArgumentException("Unsupported request object " + object.getClass().getName());
+    }
+
+    @Override
+    public Response decodeResponse(ByteBuffer buffer) throws IOException {
+        BinaryReader reader = new BinaryReader(buffer);
+        try {
+            int version = reader.readByte();
+            if (version != FORMAT_VERSION)
+                throw new IOException("Unsupported binary response version " + version);
+            Response response = new Response();
+            String code = reader.readString();
+            response.setResponseCode(code == null ? null : ResponseCode.valueOf(code));
+            response.setResponseBody(reader.readString());
+            long argCount = reader.readVarLong();
+            if (argCount != 0) {
+                if (argCount - 1 > buffer.remaining())
+                    throw new IOException("Argument count " + (argCount - 1) + " exceeds the message");
+                String[] args = new String[(int) (argCount - 1)];
+                for (int i = 0; i < args.length; i++)
+                    args[i] = reader.readString();
+                response.setResponseBodyArgs(args);
+            }
+            int workerCount = reader.readCount();
+            HashSet<Worker> workers = new HashSet<>();
+            for (int i = 0; i < workerCount; i++)
+                workers.add(readWorker(reader));
+            response.setWorkers(workers);
+            return response;
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new IOException("Malformed binary response", e);
+        } catch (IllegalStateException e) {
+            throw new IOException("Binary response cannot be built with this model library", e);
+        }
+    }
+
+    private static void writeArgs(BinaryWriter writer, Object args) {
+        if (args == null) {
+            writer.writeVarLong(0);
+        } else if (args instanceof Object[]) {
+            Object[] values = (Object[]) args;
+            writer.writeVarLong(values.length + 1L);
+            for (Object value : values)
+                writer.writeString(value == null ? null : String.valueOf(value));
+        } else if (args instanceof Collection) {
+            Collection<?> values = (Collection<?>) args;
+            writer.writeVarLong(values.size() + 1L);
+            for (Object value : values)
+                writer.writeString(value == null ? null : String.valueOf(value));
+        } else {
+            writer.writeVarLong(2);
+            writer.writeString(String.valueOf(args));
+        }
+    }
+
+    static void writeWorker(BinaryWriter writer, Worker worker) {
+        writer.writeZigZag(worker.getId());
+        writer.writeString(worker.getName());
+        writeValue(writer, worker.getCoordinateX());
+        writeValue(writer, worker.getCoordinateY());
+        writeValue(writer, worker.getSalary());
+        writer.writeString(worker.getEndDateString());
+        writer.writeString(worker.getCreationDateString());
+        writer.writeString(worker.getPositionString());
+        writer.writeString(worker.getStatusString());
+        writer.writeString(worker.getOrganizationNameString());
+        writer.writeString(worker.getOrganizationTypeString());
+        writer.writeString(worker.getAnnualTurnoverString());
+        writer.writeString(worker.getAddressStreet());
+        writer.writeString(worker.getAddressZipCode());
+    }
+
+    private static void writeValue(BinaryWriter writer, Object value) {
+        if (value == null) {
+            writer.writeByte(TAG_NULL);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writer.writeByte(TAG_LONG);
+            writer.writeZigZag(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            writer.writeByte(TAG_DOUBLE);
+            writer.writeDouble(((Number) value).doubleValue());
+        } else {
+            writer.writeByte(TAG_STRING);
+            writer.writeString(String.valueOf(value));
+        }
+    }
+}
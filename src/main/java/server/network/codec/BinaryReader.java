@@ -0,0 +1,73 @@
+package server.network.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Чтение примитивов компактного двоичного формата, записанных {@link BinaryWriter}.
+ * Длины и числа проверяются по оставшимся данным, поэтому поврежденное сообщение
+ * не приводит к выделению больших массивов.
+ */
+final class BinaryReader {
+    private final ByteBuffer buffer;
+
+    BinaryReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    int readByte() throws IOException {
+        require(1);
+        return buffer.get() & 0xFF;
+    }
+
+    double readDouble() throws IOException {
+        require(8);
+        return buffer.getDouble();
+    }
+
+    long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Varint is too long");
+    }
+
+    long readZigZag() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Читает число элементов, каждый из которых занимает хотя бы один байт.
+     */
+    int readCount() throws IOException {
+        long count = readVarLong();
+        if (count < 0 || count > buffer.remaining())
+            throw new IOException("Count " + count + " exceeds the message");
+        return (int) count;
+    }
+
+    /**
+     * Читает строку: длина 0 означает null, остальные - длину в байтах + 1.
+     */
+    String readString() throws IOException {
+        long length = readVarLong();
+        if (length == 0)
+            return null;
+        if (length - 1 > buffer.remaining() || length < 0)
+            throw new IOException("String of " + (length - 1) + " bytes exceeds the message");
+        byte[] bytes = new byte[(int) (length - 1)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void require(int bytes) throws IOException {
+        if (buffer.remaining() < bytes)
+            throw new IOException("Message is truncated");
+    }
+}
@@ -0,0 +1,120 @@
+package server.network.codec;
+
+import server.network.BufferPool;
+import server.network.PooledBuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Запись примитивов компактного двоичного формата в расширяемый буфер из {@link BufferPool}.
+ * Целые числа записываются в формате varint, строки - длиной в байтах и UTF-8 без промежуточных массивов.
+ */
+final class BinaryWriter {
+    private PooledBuffer pooled;
+    private ByteBuffer buffer;
+
+    BinaryWriter(int initialCapacity) {
+        pooled = BufferPool.getInstance().acquire(initialCapacity);
+        buffer = pooled.buffer();
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes)
+            return;
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+        PooledBuffer grown = BufferPool.getInstance().acquire(capacity);
+        buffer.flip();
+        grown.buffer().put(buffer);
+        pooled.release();
+        pooled = grown;
+        buffer = grown.buffer();
+    }
+
+    void writeByte(int value) {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    void writeDouble(double value) {
+        ensure(8);
+        buffer.putDouble(value);
+    }
+
+    void writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    void writeZigZag(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Записывает строку; null кодируется длиной 0, пустая строка - длиной 1, остальные - длиной + 1.
+     */
+    void writeString(String value) {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+        int length = utf8Length(value);
+        writeVarLong(length + 1L);
+        ensure(length);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                if (Character.isSurrogate(c))
+                    c = '?';
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80)
+                length += 1;
+            else if (c < 0x800)
+                length += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else length += 3;
+        }
+        return length;
+    }
+
+    /**
+     * @return Буфер с записанными данными, подготовленный к чтению.
+     */
+    PooledBuffer finish() {
+        buffer.flip();
+        return pooled;
+    }
+
+    /**
+     * Возвращает буфер в пул, если запись прервана.
+     */
+    void abort() {
+        pooled.release();
+    }
+}
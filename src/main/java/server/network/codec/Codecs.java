@@ -0,0 +1,24 @@
+package server.network.codec;
+
+/**
+ * Реестр поддерживаемых форматов сообщений.
+ */
+public final class Codecs {
+    public static final MessageCodec JAVA = new JavaSerializationCodec();
+    public static final MessageCodec BINARY = new BinaryCodec();
+
+    private Codecs() {
+    }
+
+    /**
+     * Метод, возвращающий формат по идентификатору.
+     *
+     * @param id идентификатор из заголовка кадра.
+     * @return Формат; для неизвестных идентификаторов - сериализация Java.
+     */
+    public static MessageCodec forId(byte id) {
+        if (id == BINARY.getId())
+            return BINARY;
+        return JAVA;
+    }
+}
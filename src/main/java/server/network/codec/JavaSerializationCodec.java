@@ -0,0 +1,73 @@
+package server.network.codec;
+
+import commons.network.Request;
+import commons.network.Response;
+import commons.utils.SerializationTool;
+import server.network.PooledBuffer;
+import server.utils.CommonsObjects;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Формат сериализации Java, понятный клиентам всех версий.
+ * Запросы читаются только из стандартного потока сериализации и только с проверкой допустимых классов.
+ */
+final class JavaSerializationCodec implements MessageCodec {
+    private static final short STREAM_MAGIC = (short) 0xACED;
+    /**
+     * Классы стандартной библиотеки, которые есть в ответе сверх классов запроса.
+     */
+    private static final Set<String> RESPONSE_CLASSES = Collections.singleton("java.util.HashSet");
+
+    @Override
+    public byte getId() {
+        return 0;
+    }
+
+    @Override
+    public Request decodeRequest(ByteBuffer buffer) throws IOException {
+        return read(buffer, Request.class, Collections.emptySet());
+    }
+
+    private static <T> T read(ByteBuffer buffer, Class<T> type, Set<String> extraClasses) throws IOException {
+        if (buffer.remaining() < 2 || buffer.getShort(buffer.position()) != STREAM_MAGIC)
+            throw new StreamCorruptedException("Message is not a Java serialization stream");
+        try (ObjectInputStream in = new ValidatingObjectInputStream(new ByteBufferInputStream(buffer), extraClasses)) {
+            Object message = in.readObject();
+            if (!type.isInstance(message))
+                throw new InvalidObjectException("Not a " + type.getSimpleName() + ": "
+                        + (message == null ? null : message.getClass().getName()));
+            return type.cast(message);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class in message", e);
+        }
+    }
+
+    @Override
+    public PooledBuffer encodeResponse(Response response) throws IOException {
+        return PooledBuffer.wrap(SerializationTool.serializeObject(response));
+    }
+
+    @Override
+    public PooledBuffer encodeRequest(String name, String argument, Serializable object, String login, String password)
+            throws IOException {
+        try {
+            return PooledBuffer.wrap(SerializationTool.serializeObject(CommonsObjects.request(name, argument, object,
+                    login == null ? null : CommonsObjects.user(login, password))));
+        } catch (IllegalStateException e) {
+            throw new IOException("Unable to build a request", e);
+        }
+    }
+
+    @Override
+    public Response decodeResponse(ByteBuffer buffer) throws IOException {
+        return read(buffer, Response.class, RESPONSE_CLASSES);
+    }
+}
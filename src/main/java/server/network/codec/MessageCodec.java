@@ -0,0 +1,53 @@
+package server.network.codec;
+
+import commons.network.Request;
+import commons.network.Response;
+import server.network.PooledBuffer;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Формат представления сообщений в датаграммах.
+ * Клиент выбирает формат ответов идентификатором в заголовке кадра надежного протокола.
+ */
+public interface MessageCodec {
+    /**
+     * @return Идентификатор формата в заголовке кадра.
+     */
+    byte getId();
+
+    /**
+     * Метод, декодирующий запрос клиента.
+     *
+     * @param buffer буфер, подготовленный к чтению.
+     * @return Запрос.
+     */
+    Request decodeRequest(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Метод, кодирующий ответ за один проход.
+     *
+     * @param response ответ.
+     * @return Буфер с закодированным ответом, подготовленный к чтению; возвращается в пул получателем.
+     */
+    PooledBuffer encodeResponse(Response response) throws IOException;
+
+    /**
+     * Метод, кодирующий запрос так, как его отправляет клиент (генератор нагрузки, проверки формата).
+     *
+     * @param object объект команды: объект коллекции или список запросов пакета.
+     * @return Буфер с закодированным запросом, подготовленный к чтению; возвращается в пул получателем.
+     */
+    PooledBuffer encodeRequest(String name, String argument, Serializable object, String login, String password)
+            throws IOException;
+
+    /**
+     * Метод, декодирующий ответ сервера на стороне клиента.
+     *
+     * @param buffer буфер, подготовленный к чтению.
+     * @return Ответ.
+     */
+    Response decodeResponse(ByteBuffer buffer) throws IOException;
+}
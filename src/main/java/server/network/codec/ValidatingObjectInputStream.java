@@ -0,0 +1,50 @@
+package server.network.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Поток десериализации, допускающий только классы модели и те классы стандартной библиотеки,
+ * из которых состоят запросы клиентов: строки и числа полей, даты объекта (через java.time.Ser)
+ * и списки запросов пакета. Клиент, читающий ответы, добавляет к ним классы ответа.
+ */
+final class ValidatingObjectInputStream extends ObjectInputStream {
+    private static final String ALLOWED_PACKAGE = "commons.";
+    private static final Set<String> ALLOWED_CLASSES = new HashSet<>(Arrays.asList(
+            "java.lang.Object", "java.lang.String", "java.lang.Enum", "java.lang.Number", "java.lang.Boolean",
+            "java.lang.Integer", "java.lang.Long", "java.lang.Double", "java.lang.Float",
+            "java.time.Ser", "java.time.LocalDate", "java.time.ZonedDateTime",
+            "java.util.ArrayList", "java.util.LinkedList", "java.util.Arrays$ArrayList"));
+
+    private final Set<String> extraClasses;
+
+    /**
+     * @param extraClasses классы, допустимые сверх классов запроса.
+     */
+    ValidatingObjectInputStream(InputStream in, Set<String> extraClasses) throws IOException {
+        super(in);
+        this.extraClasses = extraClasses;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        String name = desc.getName();
+        int dimensions = 0;
+        while (dimensions < name.length() && name.charAt(dimensions) == '[')
+            dimensions++;
+        if (dimensions > 0) {
+            if (name.length() == dimensions + 1)
+                return super.resolveClass(desc);
+            name = name.substring(dimensions + 1, name.length() - 1);
+        }
+        if (name.startsWith(ALLOWED_PACKAGE) || ALLOWED_CLASSES.contains(name) || extraClasses.contains(name))
+            return super.resolveClass(desc);
+        throw new InvalidClassException(name, "Class is not allowed in requests");
+    }
+}
@@ -0,0 +1,55 @@
+package server.network.codec;
+
+import commons.elements.Worker;
+import server.network.PooledBuffer;
+import server.utils.WorkerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+
+/**
+ * Двоичное представление одного объекта коллекции в формате {@link BinaryCodec} для хранения
+ * вне сообщений (журнал изменений). Чтение требует {@link WorkerFactory#isAvailable()}.
+ */
+public final class WorkerFormat {
+    private WorkerFormat() {
+    }
+
+    /**
+     * @param worker объект коллекции.
+     * @return Байты объекта.
+     */
+    public static byte[] encode(Worker worker) {
+        BinaryWriter writer = new BinaryWriter(256);
+        try {
+            BinaryCodec.writeWorker(writer, worker);
+        } catch (RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+        PooledBuffer encoded = writer.finish();
+        try {
+            byte[] bytes = new byte[encoded.buffer().remaining()];
+            encoded.buffer().get(bytes);
+            return bytes;
+        } finally {
+            encoded.release();
+        }
+    }
+
+    /**
+     * @param buffer буфер, подготовленный к чтению; читается один объект.
+     * @return Объект коллекции.
+     * @throws IOException если данные повреждены или объект нельзя создать.
+     */
+    public static Worker decode(ByteBuffer buffer) throws IOException {
+        try {
+            return BinaryCodec.readWorker(new BinaryReader(buffer));
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new IOException("Malformed worker", e);
+        } catch (IllegalStateException e) {
+            throw new IOException("Worker cannot be built with this model library", e);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package server.session;
+
+import commons.app.User;
+import commons.utils.SerializationTool;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Кеш сессий пользователей, прошедших проверку в базе данных.
+ * Сессия находится по токену, выданному при входе и передаваемому в каждом запросе; поиск по пользователю
+ * нужен только клиентам без токена. Ключ такого поиска - SHA-256 от сериализованного пользователя,
+ * поэтому пользователь с другим паролем сессию не найдет.
+ * Сама сессия хранит объект пользователя целиком, вместе с паролем: команды библиотеки commons
+ * и {@link commons.utils.DataBaseCenter} принимают только объект {@link User} и проверяют по нему
+ * владельца объектов, а построить его из одного логина нельзя. Пароль не покидает процесс сервера:
+ * сессии не сохраняются и не передаются, а клиенту выдается только токен.
+ * Сессия живет заданное время с момента последнего обращения, при превышении размера вытесняются
+ * давно не использованные сессии.
+ */
+public final class SessionCache {
+    /**
+     * Сессия пользователя.
+     */
+    public static final class Session {
+        private final String token;
+        private final String digest;
+        private final User user;
+        private long expiresAt;
+
+        private Session(String token, String digest, User user, long expiresAt) {
+            this.token = token;
+            this.digest = digest;
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        /**
+         * @return Пользователь, прошедший проверку при открытии сессии, с паролем: его требуют команды и база данных.
+         */
+        public User getUser() {
+            return user;
+        }
+    }
+
+    private final int maxSessions;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Session> byDigest = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, Session> byToken = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final SecureRandom random = new SecureRandom();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maxSessions наибольшее число сессий.
+     * @param ttlMillis   время жизни сессии без обращений.
+     */
+    public SessionCache(int maxSessions, long ttlMillis) {
+        this.maxSessions = maxSessions;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Метод, ищущий действующую сессию пользователя и продлевающий ее.
+     *
+     * @param user пользователь из запроса.
+     * @return Сессия или null, если пользователь должен пройти проверку в базе данных.
+     */
+    public Session lookup(User user) {
+        if (user == null)
+            return null;
+        String digest = digest(user);
+        lock.lock();
+        try {
+            return renew(byDigest.get(digest));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Метод, ищущий действующую сессию по токену и продлевающий ее.
+     *
+     * @param token токен сессии.
+     * @return Сессия или null, если токен неизвестен или сессия истекла.
+     */
+    public Session lookup(String token) {
+        if (token == null)
+            return null;
+        lock.lock();
+        try {
+            Session session = byToken.get(token);
+            if (session != null)
+                byDigest.get(session.digest); // продвигает сессию в порядке вытеснения
+            return renew(session);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Метод, проверяющий токен без продления сессии.
+     *
+     * @param token токен сессии.
+     * @return True если сессия с таким токеном открыта и не истекла.
+     */
+    public boolean isValid(String token) {
+        lock.lock();
+        try {
+            Session session = byToken.get(token);
+            return session != null && session.expiresAt >= System.currentTimeMillis();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Session renew(Session session) {
+        long now = System.currentTimeMillis();
+        if (session != null && session.expiresAt < now) {
+            remove(session);
+            expirations.increment();
+            session = null;
+        }
+        if (session == null) {
+            misses.increment();
+            return null;
+        }
+        session.expiresAt = now + ttlMillis;
+        hits.increment();
+        return session;
+    }
+
+    /**
+     * Метод, открывающий сессию пользователя, прошедшего проверку в базе данных.
+     *
+     * @param user пользователь.
+     * @return Новая сессия.
+     */
+    public Session open(User user) {
+        String digest = digest(user);
+        byte[] bytes = new byte[18];
+        random.nextBytes(bytes);
+        Session session = new Session(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes), digest, user,
+                System.currentTimeMillis() + ttlMillis);
+        lock.lock();
+        try {
+            Session previous = byDigest.put(digest, session);
+            if (previous != null)
+                byToken.remove(previous.token);
+            byToken.put(session.token, session);
+            Iterator<Session> eldest = byDigest.values().iterator();
+            while (byDigest.size() > maxSessions && eldest.hasNext()) {
+                Session evicted = eldest.next();
+                eldest.remove();
+                byToken.remove(evicted.token);
+                evictions.increment();
+            }
+            return session;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Метод, закрывающий сессию по ее токену.
+     *
+     * @param token токен сессии.
+     * @return True если сессия существовала.
+     */
+    public boolean close(String token) {
+        lock.lock();
+        try {
+            Session session = byToken.get(token);
+            if (session == null)
+                return false;
+            remove(session);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Метод, закрывающий сессию пользователя, например при выходе или смене пароля.
+     *
+     * @param user пользователь.
+     * @return True если сессия существовала.
+     */
+    public boolean invalidate(User user) {
+        String digest = digest(user);
+        lock.lock();
+        try {
+            Session session = byDigest.get(digest);
+            if (session == null)
+                return false;
+            remove(session);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(Session session) {
+        byDigest.remove(session.digest);
+        byToken.remove(session.token);
+    }
+
+    private static String digest(User user) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(sha.digest(SerializationTool.serializeObject(user)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return byDigest.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SessionCache{hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + evictions.sum()
+                + ", expirations=" + expirations.sum() + ", sessions=" + size() + "}";
+    }
+}
@@ -0,0 +1,110 @@
+package server.utils;
+
+import commons.app.User;
+import commons.network.Request;
+
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Создание объектов библиотеки commons, которые сервер раньше только получал от клиентов.
+ * Библиотека не описывает своих конструкторов, поэтому конструктор подбирается через отражение
+ * по числу и типам аргументов: сервер собирается с любой версией библиотеки, а при отсутствии
+ * подходящего конструктора зависящие от него возможности отключаются с сообщением в журнале.
+ */
+public final class CommonsObjects {
+    private static final Map<Class<?>, Constructor<?>[]> constructors = new ConcurrentHashMap<>();
+
+    private CommonsObjects() {
+    }
+
+    /**
+     * Метод, создающий объект первым публичным конструктором, принимающим аргументы с такими типами.
+     * Null подходит к любому параметру ссылочного типа.
+     *
+     * @param type класс объекта.
+     * @param args аргументы конструктора.
+     * @return Созданный объект.
+     * @throws IllegalStateException если подходящего конструктора нет или он выбросил исключение.
+     */
+    public static <T> T create(Class<T> type, Object... args) {
+        Constructor<?> constructor = find(type, args);
+        if (constructor == null)
+            throw new IllegalStateException(type.getName() + " has no public constructor for " + describe(args));
+        try {
+            return type.cast(constructor.newInstance(args));
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create " + type.getName(), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create " + type.getName(), e);
+        }
+    }
+
+    /**
+     * @return True если у класса есть публичный конструктор для аргументов с такими типами.
+     */
+    public static boolean supports(Class<?> type, Object... args) {
+        return find(type, args) != null;
+    }
+
+    /**
+     * @return Пользователь с заданными логином и паролем.
+     */
+    public static User user(String login, String password) {
+        return create(User.class, login, password);
+    }
+
+    /**
+     * @return Запрос клиента.
+     */
+    public static Request request(String name, String argument, Serializable object, User user) {
+        return create(Request.class, name, argument, object, user);
+    }
+
+    private static Constructor<?> find(Class<?> type, Object[] args) {
+        Constructor<?>[] candidates = constructors.computeIfAbsent(type, Class::getConstructors);
+        for (Constructor<?> candidate : candidates)
+            if (accepts(candidate.getParameterTypes(), args))
+                return candidate;
+        return null;
+    }
+
+    private static boolean accepts(Class<?>[] parameters, Object[] args) {
+        if (parameters.length != args.length)
+            return false;
+        for (int i = 0; i < parameters.length; i++) {
+            if (args[i] == null ? parameters[i].isPrimitive() : !wrap(parameters[i]).isInstance(args[i]))
+                return false;
+        }
+        return true;
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        if (!type.isPrimitive())
+            return type;
+        if (type == long.class)
+            return Long.class;
+        if (type == int.class)
+            return Integer.class;
+        if (type == double.class)
+            return Double.class;
+        if (type == float.class)
+            return Float.class;
+        if (type == boolean.class)
+            return Boolean.class;
+        if (type == short.class)
+            return Short.class;
+        if (type == byte.class)
+            return Byte.class;
+        return Character.class;
+    }
+
+    private static String describe(Object[] args) {
+        return Arrays.toString(Arrays.stream(args)
+                .map(arg -> arg == null ? "null" : arg.getClass().getSimpleName()).toArray());
+    }
+}
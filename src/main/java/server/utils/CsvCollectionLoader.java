@@ -0,0 +1,406 @@
+package server.utils;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVParserBuilder;
+import commons.elements.OrganizationType;
+import commons.elements.Position;
+import commons.elements.Status;
+import commons.elements.Worker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Загрузка коллекции из CSV-файла в формате, который пишет команда save.
+ * Файл отображается в память и делится на куски по границам строк, куски разбираются
+ * параллельно. Числа, даты и значения перечислений разбираются прямо из байтов файла,
+ * строки создаются только для текстовых полей. Строки с кавычками разбираются через opencsv.
+ * Ошибочные строки пропускаются и попадают в отчет с номером строки.
+ */
+public final class CsvCollectionLoader {
+    /**
+     * Результат загрузки.
+     */
+    public static final class Result {
+        private final HashSet<Worker> workers;
+        private final List<String> errors;
+        private final long lines;
+        private final long millis;
+
+        private Result(HashSet<Worker> workers, List<String> errors, long lines, long millis) {
+            this.workers = workers;
+            this.errors = errors;
+            this.lines = lines;
+            this.millis = millis;
+        }
+
+        public HashSet<Worker> getWorkers() {
+            return workers;
+        }
+
+        /**
+         * @return Описания ошибок вида "line N: ...".
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+
+    private static final int FIELDS = 14;
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final Position[] POSITIONS = Position.values();
+    private static final Status[] STATUSES = Status.values();
+    private static final OrganizationType[] ORGANIZATION_TYPES = OrganizationType.values();
+    private static final byte[][] POSITION_NAMES = names(POSITIONS);
+    private static final byte[][] STATUS_NAMES = names(STATUSES);
+    private static final byte[][] ORGANIZATION_TYPE_NAMES = names(ORGANIZATION_TYPES);
+
+    private final Path path;
+    private final char separator;
+    private final int chunkSize;
+
+    /**
+     * @param path      путь к файлу коллекции.
+     * @param separator разделитель значений.
+     * @param chunkSize примерный размер куска файла, разбираемого одной задачей.
+     */
+    public CsvCollectionLoader(Path path, char separator, int chunkSize) {
+        this.path = path;
+        this.separator = separator;
+        this.chunkSize = chunkSize;
+    }
+
+    public CsvCollectionLoader(Path path, char separator) {
+        this(path, separator, 8 * 1024 * 1024);
+    }
+
+    /**
+     * Метод, загружающий коллекцию.
+     *
+     * @param pool пул, в котором разбираются куски файла.
+     * @return Загруженные объекты и ошибки.
+     */
+    public Result load(ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        List<Chunk> chunks = new ArrayList<>();
+        long firstLine;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long begin = nextLine(channel, 0, size);
+            firstLine = 2;
+            if (!isHeader(channel, begin)) {
+                begin = 0;
+                firstLine = 1;
+            }
+            while (begin < size) {
+                long end = Math.min(size, begin + chunkSize);
+                if (end < size)
+                    end = nextLine(channel, end, size);
+                chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, begin, end - begin)));
+                begin = end;
+            }
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(chunks)));
+
+        int total = 0;
+        for (Chunk chunk : chunks)
+            total += chunk.workers.size();
+        HashSet<Worker> workers = new HashSet<>(Math.max(16, (int) (total / 0.75f) + 1));
+        List<String> errors = new ArrayList<>();
+        long line = firstLine;
+        for (Chunk chunk : chunks) {
+            workers.addAll(chunk.workers);
+            for (int i = 0; i < chunk.errorLines.size(); i++)
+                errors.add("line " + (line + chunk.errorLines.get(i)) + ": " + chunk.errorMessages.get(i));
+            line += chunk.lines;
+        }
+        return new Result(workers, errors, line - 1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private boolean isHeader(FileChannel channel, long headerEnd) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(3);
+        channel.read(head, 0);
+        return headerEnd > 0 && head.position() == 3 && head.get(0) == 'i' && head.get(1) == 'd'
+                && head.get(2) == separator;
+    }
+
+    /**
+     * Возвращает позицию начала строки, следующей за позицией from.
+     */
+    private static long nextLine(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(8192);
+        long position = from;
+        while (position < size) {
+            window.clear();
+            int read = channel.read(window, position);
+            if (read <= 0)
+                break;
+            for (int i = 0; i < read; i++)
+                if (window.get(i) == '\n')
+                    return position + i + 1;
+            position += read;
+        }
+        return size;
+    }
+
+    private static byte[][] names(Enum<?>[] values) {
+        byte[][] names = new byte[values.length][];
+        for (int i = 0; i < values.length; i++)
+            names[i] = values[i].name().getBytes(StandardCharsets.US_ASCII);
+        return names;
+    }
+
+    /**
+     * Кусок файла, разбираемый одной задачей.
+     */
+    private final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer data;
+        private final int[] bounds = new int[FIELDS * 2];
+        private final List<Worker> workers = new ArrayList<>();
+        private final List<Integer> errorLines = new ArrayList<>();
+        private final List<String> errorMessages = new ArrayList<>();
+        private CSVParser quotedParser;
+        private int lines;
+        private ByteBuffer line;
+
+        private Chunk(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        protected void compute() {
+            int limit = data.limit();
+            int start = 0;
+            while (start < limit) {
+                int end = start;
+                while (end < limit && data.get(end) != '\n')
+                    end++;
+                int next = end + 1;
+                if (end > start && data.get(end - 1) == '\r')
+                    end--;
+                if (end > start) {
+                    try {
+                        workers.add(parse(start, end));
+                    } catch (RuntimeException e) {
+                        errorLines.add(lines);
+                        errorMessages.add(e.getMessage() == null ? e.toString() : e.getMessage());
+                    }
+                }
+                lines++;
+                start = next;
+            }
+        }
+
+        private Worker parse(int start, int end) {
+            line = data;
+            if (!split(start, end))
+                splitQuoted(start, end);
+            return WorkerFactory.create(
+                    parseLong(0, "id"),
+                    text(1),
+                    parseLong(2, "x"),
+                    parseInteger(3, "y"),
+                    parseInteger(4, "salary"),
+                    parseLocalDate(5),
+                    parseCreationDate(6),
+                    parseEnum(7, POSITIONS, POSITION_NAMES, "position"),
+                    parseEnum(8, STATUSES, STATUS_NAMES, "status"),
+                    text(9),
+                    parseEnum(10, ORGANIZATION_TYPES, ORGANIZATION_TYPE_NAMES, "orgType"),
+                    parseInteger(11, "annualTurnover"),
+                    text(12),
+                    text(13));
+        }
+
+        /**
+         * Делит строку на поля по разделителю.
+         *
+         * @return False если в строке есть кавычки и ее нужно разобрать полноценным парсером.
+         */
+        private boolean split(int start, int end) {
+            int field = 0;
+            int from = start;
+            for (int i = start; i < end; i++) {
+                byte b = data.get(i);
+                if (b == '"')
+                    return false;
+                if (b == separator) {
+                    if (field == FIELDS - 1)
+                        throw new IllegalArgumentException("more than " + FIELDS + " fields");
+                    bounds[2 * field] = from;
+                    bounds[2 * field + 1] = i;
+                    field++;
+                    from = i + 1;
+                }
+            }
+            bounds[2 * field] = from;
+            bounds[2 * field + 1] = end;
+            if (field != FIELDS - 1)
+                throw new IllegalArgumentException("expected " + FIELDS + " fields, found " + (field + 1));
+            return true;
+        }
+
+        private void splitQuoted(int start, int end) {
+            String[] fields;
+            try {
+                if (quotedParser == null)
+                    quotedParser = new CSVParserBuilder().withSeparator(separator).build();
+                fields = quotedParser.parseLine(string(data, start, end));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            if (fields.length != FIELDS)
+                throw new IllegalArgumentException("expected " + FIELDS + " fields, found " + fields.length);
+            int length = 0;
+            byte[][] encoded = new byte[FIELDS][];
+            for (int i = 0; i < FIELDS; i++) {
+                encoded[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+                length += encoded[i].length;
+            }
+            line = ByteBuffer.allocate(length);
+            for (int i = 0; i < FIELDS; i++) {
+                bounds[2 * i] = line.position();
+                line.put(encoded[i]);
+                bounds[2 * i + 1] = line.position();
+            }
+        }
+
+        private boolean isNull(int field) {
+            int from = bounds[2 * field];
+            int to = bounds[2 * field + 1];
+            return from == to || matches(from, to, NULL);
+        }
+
+        private boolean matches(int from, int to, byte[] expected) {
+            if (to - from != expected.length)
+                return false;
+            for (int i = 0; i < expected.length; i++)
+                if (line.get(from + i) != expected[i])
+                    return false;
+            return true;
+        }
+
+        private String text(int field) {
+            return isNull(field) ? null : string(line, bounds[2 * field], bounds[2 * field + 1]);
+        }
+
+        private long parseLong(int field, String name) {
+            if (isNull(field))
+                throw new IllegalArgumentException(name + " is empty");
+            return digits(bounds[2 * field], bounds[2 * field + 1], name);
+        }
+
+        private Integer parseInteger(int field, String name) {
+            if (isNull(field))
+                return null;
+            long value = digits(bounds[2 * field], bounds[2 * field + 1], name);
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+                throw new IllegalArgumentException(name + " is out of range");
+            return (int) value;
+        }
+
+        private long digits(int from, int to, String name) {
+            boolean negative = from < to && line.get(from) == '-';
+            int i = negative ? from + 1 : from;
+            if (i == to || to - i > 18)
+                throw new IllegalArgumentException(name + " is not a number: " + string(line, from, to));
+            long value = 0;
+            for (; i < to; i++) {
+                int digit = line.get(i) - '0';
+                if (digit < 0 || digit > 9)
+                    throw new IllegalArgumentException(name + " is not a number: " + string(line, from, to));
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        private <E extends Enum<E>> E parseEnum(int field, E[] values, byte[][] names, String name) {
+            if (isNull(field))
+                return null;
+            int from = bounds[2 * field];
+            int to = bounds[2 * field + 1];
+            for (int i = 0; i < names.length; i++)
+                if (matches(from, to, names[i]))
+                    return values[i];
+            throw new IllegalArgumentException("unknown " + name + ": " + string(line, from, to));
+        }
+
+        /**
+         * Разбирает дату окончания в формате yyyy-MM-dd.
+         */
+        private LocalDate parseLocalDate(int field) {
+            if (isNull(field))
+                return null;
+            int from = bounds[2 * field];
+            int to = bounds[2 * field + 1];
+            try {
+                if (to - from == 10 && line.get(from + 4) == '-' && line.get(from + 7) == '-')
+                    return LocalDate.of((int) digits(from, from + 4, "endDate"),
+                            (int) digits(from + 5, from + 7, "endDate"), (int) digits(from + 8, from + 10, "endDate"));
+                return LocalDate.parse(string(line, from, to));
+            } catch (DateTimeException e) {
+                throw new IllegalArgumentException("endDate is invalid: " + string(line, from, to), e);
+            }
+        }
+
+        /**
+         * Разбирает дату создания в формате MM/dd/yyyy - HH:mm:ss z.
+         * Даты в UTC разбираются из байтов, остальные зоны - через DateTimeFormatter.
+         */
+        private ZonedDateTime parseCreationDate(int field) {
+            if (isNull(field))
+                return ZonedDateTime.now();
+            int from = bounds[2 * field];
+            int to = bounds[2 * field + 1];
+            try {
+                if (to - from == 23 && line.get(from + 22) == 'Z' && line.get(from + 2) == '/'
+                        && line.get(from + 5) == '/' && line.get(from + 10) == ' ' && line.get(from + 11) == '-'
+                        && line.get(from + 15) == ':' && line.get(from + 18) == ':')
+                    return ZonedDateTime.of(LocalDateTime.of(
+                            (int) digits(from + 6, from + 10, "creationDate"),
+                            (int) digits(from, from + 2, "creationDate"),
+                            (int) digits(from + 3, from + 5, "creationDate"),
+                            (int) digits(from + 13, from + 15, "creationDate"),
+                            (int) digits(from + 16, from + 18, "creationDate"),
+                            (int) digits(from + 19, from + 21, "creationDate")), ZoneOffset.UTC);
+                return ZonedDateTime.parse(string(line, from, to), WorkerFactory.CREATION_DATE);
+            } catch (DateTimeException e) {
+                throw new IllegalArgumentException("creationDate is invalid: " + string(line, from, to), e);
+            }
+        }
+    }
+
+    private static String string(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        ByteBuffer view = buffer.duplicate();
+        view.position(from);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
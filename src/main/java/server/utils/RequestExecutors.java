@@ -0,0 +1,47 @@
+package server.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Создание исполнителя обработки запросов.
+ * Режим fixed - пул из заданного числа потоков платформы, режим virtual - отдельный виртуальный
+ * поток на каждую задачу (JDK 21 и новее). Виртуальные потоки создаются через отражение,
+ * чтобы сервер собирался и запускался и на более старых JDK; там используется пул потоков.
+ */
+public final class RequestExecutors {
+    private static final Logger logger = Logger.getLogger(RequestExecutors.class.getName());
+
+    private RequestExecutors() {
+    }
+
+    /**
+     * @param mode    режим: fixed или virtual.
+     * @param threads число потоков пула в режиме fixed и при отсутствии виртуальных потоков.
+     * @return Исполнитель.
+     */
+    public static ExecutorService create(String mode, int threads) {
+        if ("virtual".equalsIgnoreCase(mode)) {
+            try {
+                ExecutorService executor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                logger.log(Level.INFO, "Requests are handled on virtual threads");
+                return executor;
+            } catch (ReflectiveOperationException e) {
+                logger.log(Level.WARNING, "Virtual threads are not available on Java "
+                        + System.getProperty("java.version") + ", using a pool of " + threads + " threads");
+            }
+        } else if (!"fixed".equalsIgnoreCase(mode)) {
+            logger.log(Level.WARNING, "Unknown executor mode " + mode + ", using a pool of " + threads + " threads");
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "request-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
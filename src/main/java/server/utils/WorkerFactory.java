@@ -0,0 +1,74 @@
+package server.utils;
+
+import commons.elements.Address;
+import commons.elements.Coordinates;
+import commons.elements.Organization;
+import commons.elements.OrganizationType;
+import commons.elements.Position;
+import commons.elements.Status;
+import commons.elements.Worker;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Создание объектов коллекции из значений полей, прочитанных с сервера
+ * (файл коллекции, журналы, генераторы нагрузки). Конструкторы модели подбираются
+ * через {@link CommonsObjects}; {@link #isAvailable()} сообщает, подошли ли они.
+ */
+public final class WorkerFactory {
+    private static final Logger logger = Logger.getLogger(WorkerFactory.class.getName());
+    /**
+     * Формат даты создания в файле коллекции и в сообщениях.
+     */
+    public static final DateTimeFormatter CREATION_DATE = DateTimeFormatter.ofPattern("MM/dd/yyyy - HH:mm:ss z");
+
+    private static volatile Boolean available;
+
+    private WorkerFactory() {
+    }
+
+    /**
+     * Метод, проверяющий один раз, что библиотека модели позволяет создавать объекты коллекции.
+     *
+     * @return True если {@link #create} работает с подключенной версией библиотеки.
+     */
+    public static boolean isAvailable() {
+        Boolean result = available;
+        if (result == null) {
+            try {
+                create(1, "probe", 1, 1, 1, LocalDate.now(), ZonedDateTime.now(), Position.values()[0],
+                        Status.values()[0], "probe", OrganizationType.values()[0], 0, "probe", "probe");
+                result = true;
+            } catch (IllegalStateException e) {
+                logger.log(Level.WARNING, "Workers cannot be created with this version of the model library", e);
+                result = false;
+            }
+            available = result;
+        }
+        return result;
+    }
+
+    /**
+     * Метод, создающий объект коллекции. Организация не создается, если не задано ее имя.
+     *
+     * @return Объект коллекции с заданными ID и датой создания.
+     * @throws IllegalStateException если у классов модели нет подходящих конструкторов.
+     */
+    public static Worker create(long id, String name, long x, Integer y, Integer salary, LocalDate endDate,
+                                ZonedDateTime creationDate, Position position, Status status,
+                                String organizationName, OrganizationType organizationType, Integer annualTurnover,
+                                String street, String zipCode) {
+        Organization organization = organizationName == null ? null
+                : CommonsObjects.create(Organization.class, organizationName, annualTurnover, organizationType,
+                CommonsObjects.create(Address.class, street, zipCode));
+        Worker worker = CommonsObjects.create(Worker.class, name, CommonsObjects.create(Coordinates.class, x, y),
+                salary, endDate, position, status, organization);
+        worker.setId(id);
+        worker.setCreationDate(creationDate);
+        return worker;
+    }
+}
@@ -0,0 +1,127 @@
+package server.utils;
+
+import commons.app.User;
+import commons.elements.Worker;
+import commons.utils.DataBaseCenter;
+import server.interaction.MutationSink;
+import server.interaction.WriteBehindStage;
+
+/**
+ * База данных, в которую команды записывают изменения коллекции через {@link WriteBehindStage}:
+ * вместо запроса к базе данных изменение ставится в очередь, а поток очереди применяет накопленные
+ * изменения методами {@link DataBaseCenter}. Метод изменения возвращает ответ базы данных на это изменение;
+ * в режиме ASYNC он возвращает true сразу только там, где база данных заведомо примет изменение.
+ * Пользователи и чтение коллекции обращаются к базе данных напрямую.
+ */
+public class WriteBehindDataBaseCenter extends DataBaseCenter implements MutationSink, AutoCloseable {
+    private final WriteBehindStage stage;
+    private final long syncTimeout;
+
+    /**
+     * @param mode                режим завершения изменений.
+     * @param batchSize           число изменений, при котором пакет сбрасывается сразу.
+     * @param capacity            наибольшее число ожидающих сброса изменений.
+     * @param flushIntervalMillis наибольшее время ожидания изменения в очереди.
+     * @param syncTimeout         наибольшее время ожидания записи изменения в синхронном режиме.
+     */
+    public WriteBehindDataBaseCenter(WriteBehindStage.Mode mode, int batchSize, int capacity,
+                                     long flushIntervalMillis, long syncTimeout) {
+        this.stage = new WriteBehindStage(this, mode, batchSize, capacity, flushIntervalMillis);
+        this.syncTimeout = syncTimeout;
+    }
+
+    @Override
+    public boolean addWorker(Worker worker, User user) {
+        return completed(stage.add(worker, user));
+    }
+
+    @Override
+    public boolean updateWorker(long id, Worker worker, User user) {
+        return completed(stage.update(id, worker, user));
+    }
+
+    @Override
+    public boolean removeWorker(long id, User user) {
+        return completed(stage.remove(id, user));
+    }
+
+    @Override
+    public boolean clearCollection(User user) {
+        return completed(stage.clear(user));
+    }
+
+    /**
+     * Изменение, записанное в транзакцию, не ждется: в очередь оно попадет только при подтверждении,
+     * и его результат входит в результат {@link #awaitWritten(long)}.
+     */
+    private boolean completed(long ticket) {
+        return ticket == 0 || stage.awaitCommitted(ticket, syncTimeout);
+    }
+
+    /**
+     * Метод, открывающий транзакцию текущего потока: изменения до {@link #commit()} не попадают в базу данных.
+     */
+    public void begin() {
+        stage.begin();
+    }
+
+    /**
+     * Метод, передающий изменения транзакции на запись.
+     *
+     * @return Номер последнего изменения транзакции для {@link #awaitWritten(long)}.
+     */
+    public long commit() {
+        return stage.commit();
+    }
+
+    /**
+     * Метод, отбрасывающий изменения транзакции: в базу данных они не попадут.
+     */
+    public void rollback() {
+        stage.rollback();
+    }
+
+    /**
+     * Ждет записи изменений транзакции в базу данных, если их нужно дождаться.
+     *
+     * @param ticket номер изменения.
+     * @return True если изменения записаны или их не нужно ждать; false если база данных отклонила
+     * хотя бы одно из них или они не записаны за отведенное время.
+     */
+    public boolean awaitWritten(long ticket) {
+        return stage.awaitCommitted(ticket, syncTimeout);
+    }
+
+    @Override
+    public boolean add(Worker worker, User user) {
+        return super.addWorker(worker, user);
+    }
+
+    @Override
+    public boolean update(long id, Worker worker, User user) {
+        return super.updateWorker(id, worker, user);
+    }
+
+    @Override
+    public boolean remove(long id, User user) {
+        return super.removeWorker(id, user);
+    }
+
+    @Override
+    public boolean clear(User user) {
+        return super.clearCollection(user);
+    }
+
+    /**
+     * Сбрасывает оставшиеся изменения и останавливает поток записи.
+     */
+    @Override
+    public void close() {
+        stage.close();
+    }
+
+    @Override
+    public String toString() {
+        return stage.toString();
+    }
+}
@@ -0,0 +1,88 @@
+package server.interaction;
+
+import commons.elements.Worker;
+import org.junit.Before;
+import org.junit.Test;
+import server.utils.WorkerFactory;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class LongWorkerMapTest {
+    private final Worker[] workers = new Worker[64];
+
+    @Before
+    public void setUp() {
+        assumeTrue("model constructors are not available", WorkerFactory.isAvailable());
+        for (int i = 0; i < workers.length; i++)
+            workers[i] = StorageInteractionTest.worker("worker" + i, 100 + i);
+    }
+
+    @Test
+    public void removalKeepsEveryOtherKeyReachable() {
+        LongWorkerMap map = new LongWorkerMap(4);
+        for (int key = 1; key <= 7; key++)
+            map.put(key, workers[key]);
+        for (int removed = 1; removed <= 7; removed++) {
+            assertSame(workers[removed], map.remove(removed));
+            assertNull(map.remove(removed));
+            for (int key = 1; key <= 7; key++)
+                assertEquals("key " + key + " after removing 1.." + removed,
+                        key > removed ? workers[key] : null, map.get(key));
+        }
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * Ключи из узкого диапазона в таблице минимального размера дают длинные цепочки,
+     * переходящие через конец массива, поэтому сдвиг при удалении проверяется во всех положениях.
+     */
+    @Test
+    public void randomOperationsMatchHashMap() {
+        Random random = new Random(42);
+        LongWorkerMap map = new LongWorkerMap(0);
+        Map<Long, Worker> expected = new HashMap<>();
+        for (int step = 0; step < 20000; step++) {
+            long key = random.nextInt(12) - 6;
+            if (random.nextInt(3) == 0) {
+                assertSame("remove " + key + " at step " + step, expected.remove(key), map.remove(key));
+            } else {
+                Worker worker = workers[random.nextInt(workers.length)];
+                assertSame("put " + key + " at step " + step, expected.put(key, worker), map.put(key, worker));
+            }
+            assertEquals(expected.size(), map.size());
+            for (long probe = -6; probe < 6; probe++) {
+                assertSame("get " + probe + " at step " + step, expected.get(probe), map.get(probe));
+                assertEquals(expected.containsKey(probe), map.containsKey(probe));
+            }
+        }
+    }
+
+    @Test
+    public void forEachVisitsEachValueOnceAfterResizeAndRemoval() {
+        LongWorkerMap map = new LongWorkerMap(1);
+        for (int key = 0; key < workers.length; key++)
+            map.put(key * 1024L, workers[key]);
+        for (int key = 0; key < workers.length; key += 2)
+            map.remove(key * 1024L);
+        Map<Worker, Integer> visits = new IdentityHashMap<>();
+        map.forEach(worker -> visits.merge(worker, 1, Integer::sum));
+        assertEquals(workers.length / 2, visits.size());
+        for (int key = 0; key < workers.length; key++)
+            assertEquals(key % 2 == 1, visits.containsKey(workers[key]));
+        assertFalse(visits.containsValue(2));
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.put(1, workers[1]));
+        assertTrue(map.containsKey(1));
+    }
+}
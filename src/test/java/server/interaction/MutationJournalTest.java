@@ -0,0 +1,122 @@
+package server.interaction;
+
+import commons.elements.Worker;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import server.utils.WorkerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class MutationJournalTest {
+    private static final Path FULL_DEVICE = Paths.get("/dev/full");
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreReplayedInOrder() throws IOException {
+        assumeTrue("model constructors are not available", WorkerFactory.isAvailable());
+        Path path = folder.getRoot().toPath().resolve("journal.bin");
+        Worker first = StorageInteractionTest.worker("first", 100);
+        first.setId(1);
+        Worker second = StorageInteractionTest.worker("second", 200);
+        second.setId(1);
+        try (MutationJournal journal = new MutationJournal(path, MutationJournal.FsyncPolicy.ALWAYS, 10)) {
+            journal.open();
+            journal.append(MutationJournal.Type.ADD, 1, first);
+            journal.append(MutationJournal.Type.UPDATE, 1, second);
+            journal.append(MutationJournal.Type.REMOVE, 1, null);
+            journal.awaitDurable(journal.append(MutationJournal.Type.CLEAR, 0, null));
+        }
+        List<MutationJournal.Entry> entries = new MutationJournal(path, MutationJournal.FsyncPolicy.ALWAYS, 10).read();
+        assertEquals(4, entries.size());
+        assertEquals(MutationJournal.Type.ADD, entries.get(0).getType());
+        assertEquals("first", entries.get(0).getWorker().getName());
+        assertEquals(MutationJournal.Type.UPDATE, entries.get(1).getType());
+        assertEquals("second", entries.get(1).getWorker().getName());
+        assertEquals(200, entries.get(1).getWorker().getSalary(), 0);
+        assertEquals(MutationJournal.Type.REMOVE, entries.get(2).getType());
+        assertNull(entries.get(2).getWorker());
+        assertEquals(MutationJournal.Type.CLEAR, entries.get(3).getType());
+        for (int i = 0; i < entries.size(); i++)
+            assertEquals(i + 1, entries.get(i).getSequence());
+    }
+
+    @Test
+    public void tornTailIsDroppedAndSequenceContinues() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("journal.bin");
+        try (MutationJournal journal = new MutationJournal(path, MutationJournal.FsyncPolicy.ALWAYS, 10)) {
+            journal.open();
+            journal.append(MutationJournal.Type.REMOVE, 1, null);
+            journal.awaitDurable(journal.append(MutationJournal.Type.REMOVE, 2, null));
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try (MutationJournal journal = new MutationJournal(path, MutationJournal.FsyncPolicy.ALWAYS, 10)) {
+            List<MutationJournal.Entry> entries = journal.read();
+            assertEquals(1, entries.size());
+            assertEquals(1, entries.get(0).getId());
+            journal.open();
+            assertEquals(2, journal.append(MutationJournal.Type.REMOVE, 3, null));
+            journal.awaitDurable(2);
+        }
+        List<MutationJournal.Entry> entries = new MutationJournal(path, MutationJournal.FsyncPolicy.ALWAYS, 10).read();
+        assertEquals(2, entries.size());
+        assertEquals(3, entries.get(1).getId());
+    }
+
+    @Test
+    public void checkpointTruncatesCoveredRecords() throws IOException, InterruptedException {
+        Path path = folder.getRoot().toPath().resolve("journal.bin");
+        try (MutationJournal journal = new MutationJournal(path, MutationJournal.FsyncPolicy.ALWAYS, 10)) {
+            journal.open();
+            for (long id = 1; id <= 3; id++)
+                journal.append(MutationJournal.Type.REMOVE, id, null);
+            journal.awaitDurable(3);
+            journal.checkpoint(2);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (new MutationJournal(path, MutationJournal.FsyncPolicy.ALWAYS, 10).read().size() != 1
+                    && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+        }
+        List<MutationJournal.Entry> entries = new MutationJournal(path, MutationJournal.FsyncPolicy.ALWAYS, 10).read();
+        assertEquals(1, entries.size());
+        assertEquals(3, entries.get(0).getSequence());
+    }
+
+    @Test
+    public void failedJournalRejectsFurtherRecords() throws IOException {
+        assumeTrue("/dev/full is not available", Files.isWritable(FULL_DEVICE));
+        try (MutationJournal journal = new MutationJournal(FULL_DEVICE, MutationJournal.FsyncPolicy.ALWAYS, 10)) {
+            journal.open();
+            assertFalse(journal.isFailed());
+            try {
+                journal.awaitDurable(journal.append(MutationJournal.Type.REMOVE, 1, null));
+                fail("record was reported durable on a full device");
+            } catch (UncheckedIOException expected) {
+                assertTrue(journal.isFailed());
+            }
+            try {
+                journal.append(MutationJournal.Type.REMOVE, 2, null);
+                fail("failed journal accepted a record");
+            } catch (UncheckedIOException expected) {
+                assertTrue(journal.toString().contains("lostRecords=1"));
+            }
+        }
+    }
+}
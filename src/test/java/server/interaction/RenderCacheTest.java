@@ -0,0 +1,86 @@
+package server.interaction;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RenderCacheTest {
+    @Test
+    public void leastRecentlyUsedEntriesAreEvictedByWeight() {
+        RenderCache cache = new RenderCache(30);
+        cache.putBytes(1, "a", new byte[10]);
+        cache.putBytes(1, "b", new byte[10]);
+        cache.putBytes(1, "c", new byte[10]);
+        cache.getBytes(1, "a");
+        cache.putBytes(1, "d", new byte[15]);
+        assertNull("least recently used entry is evicted first", cache.getBytes(1, "b"));
+        assertNull("eviction continues until the limit is met", cache.getBytes(1, "c"));
+        assertEquals(10, cache.getBytes(1, "a").length);
+        assertEquals(15, cache.getBytes(1, "d").length);
+        assertEquals(2, cache.getEvictions());
+        assertTrue(cache.toString().contains("bytes=25"));
+    }
+
+    @Test
+    public void replacedEntryIsNotCountedTwice() {
+        RenderCache cache = new RenderCache(30);
+        cache.putBytes(1, "a", new byte[20]);
+        cache.putBytes(2, "a", new byte[20]);
+        cache.putBytes(2, "b", new byte[10]);
+        assertEquals(0, cache.getEvictions());
+        assertTrue(cache.toString().contains("entries=2, bytes=30"));
+    }
+
+    @Test
+    public void oversizedValueIsNotCachedAndEvictsNothing() {
+        RenderCache cache = new RenderCache(10);
+        cache.putBytes(1, "a", new byte[5]);
+        cache.putBytes(1, "huge", new byte[11]);
+        assertNull(cache.getBytes(1, "huge"));
+        assertEquals(5, cache.getBytes(1, "a").length);
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void entriesOfOtherVersionsAreMisses() {
+        RenderCache cache = new RenderCache(100);
+        byte[] newer = {2};
+        cache.putBytes(2, "a", newer);
+        cache.putBytes(1, "a", new byte[]{1});
+        assertArrayEquals("older version does not replace a newer one", newer, cache.getBytes(2, "a"));
+        assertNull(cache.getBytes(3, "a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void invalidationFreesTheWeightOfStaleEntries() {
+        RenderCache cache = new RenderCache(20);
+        cache.putBytes(1, "a", new byte[10]);
+        cache.putBytes(2, "b", new byte[10]);
+        cache.invalidateBefore(2);
+        assertTrue(cache.toString().contains("entries=1, bytes=10"));
+        cache.putBytes(2, "c", new byte[10]);
+        assertEquals(0, cache.getEvictions());
+        assertEquals(10, cache.getBytes(2, "b").length);
+    }
+
+    @Test
+    public void textIsRenderedOnceAndWeighedInChars() {
+        RenderCache cache = new RenderCache(10);
+        int[] renders = {0};
+        assertEquals("abc", cache.getText(1, "show", () -> {
+            renders[0]++;
+            return "abc";
+        }));
+        assertEquals("abc", cache.getText(1, "show", () -> {
+            renders[0]++;
+            return "abc";
+        }));
+        assertEquals(1, renders[0]);
+        assertTrue(cache.toString().contains("bytes=6"));
+    }
+}
@@ -0,0 +1,106 @@
+package server.interaction;
+
+import commons.elements.OrganizationType;
+import commons.elements.Position;
+import commons.elements.Status;
+import commons.elements.Worker;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import server.utils.CsvCollectionLoader;
+import server.utils.WorkerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class SnapshotWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private final List<Long> checkpoints = new ArrayList<>();
+    private Worker[] workers;
+
+    @Before
+    public void setUp() {
+        assumeTrue("model constructors are not available", WorkerFactory.isAvailable());
+        ZonedDateTime created = ZonedDateTime.of(2021, 5, 6, 7, 8, 9, 0, ZoneId.of("UTC"));
+        workers = new Worker[]{
+                WorkerFactory.create(1, "Anna", 10, 20, 3000, LocalDate.of(2030, 1, 1), created,
+                        Position.values()[0], Status.values()[0], "Acme", OrganizationType.values()[0], 500,
+                        "Main", "190000"),
+                WorkerFactory.create(7, "Boris", -5, null, 1200, null, created, null, null,
+                        null, null, null, null, null)};
+    }
+
+    @Test
+    public void savedSnapshotIsRecoveredByTheLoader() throws Exception {
+        Path target = folder.getRoot().toPath().resolve("collection.csv");
+        SnapshotWriter writer = writer(target, snapshot(3, 17));
+        assertTrue(writer.saveNow());
+        assertFalse(Files.exists(target.resolveSibling("collection.csv.tmp")));
+
+        CsvCollectionLoader.Result result = new CsvCollectionLoader(target, ',').load(ForkJoinPool.commonPool());
+        assertEquals(Collections.emptyList(), result.getErrors());
+        Map<Long, Worker> loaded = new HashMap<>();
+        for (Worker worker : result.getWorkers())
+            loaded.put(worker.getId(), worker);
+        assertEquals(workers.length, loaded.size());
+        for (Worker worker : workers) {
+            Worker copy = loaded.get(worker.getId());
+            assertEquals(worker.getName(), copy.getName());
+            assertEquals(worker.getSalary(), copy.getSalary());
+            assertEquals(worker.getCoordinateY(), copy.getCoordinateY());
+            assertEquals(worker.getEndDateString(), copy.getEndDateString());
+            assertEquals(worker.getCreationDateString(), copy.getCreationDateString());
+            assertEquals(worker.getOrganizationNameString(), copy.getOrganizationNameString());
+            assertEquals(worker.getAddressZipCode(), copy.getAddressZipCode());
+        }
+    }
+
+    @Test
+    public void checkpointFollowsTheReplacedFile() throws Exception {
+        Path target = folder.getRoot().toPath().resolve("collection.csv");
+        SnapshotWriter writer = writer(target, snapshot(3, 17));
+        writer.setCheckpointListener(sequence -> {
+            assertTrue(Files.exists(target));
+            checkpoints.add(sequence);
+        });
+        assertTrue(writer.saveNow());
+        assertTrue(writer.saveNow());
+        assertEquals(Collections.singletonList(17L), checkpoints);
+        assertEquals(1, writer.getSaves());
+    }
+
+    @Test
+    public void failedSaveDoesNotCheckpoint() {
+        Path target = folder.getRoot().toPath().resolve("missing").resolve("collection.csv");
+        SnapshotWriter writer = writer(target, snapshot(3, 17));
+        writer.setCheckpointListener(checkpoints::add);
+        assertFalse(writer.saveNow());
+        assertTrue(checkpoints.isEmpty());
+        assertEquals(1, writer.getFailures());
+    }
+
+    private SnapshotWriter writer(Path target, CollectionSnapshot snapshot) {
+        return new SnapshotWriter(() -> snapshot, target);
+    }
+
+    private CollectionSnapshot snapshot(long version, long journalSequence) {
+        return new CollectionSnapshot(version, journalSequence, workers, new long[Status.values().length], 0,
+                Collections.emptyList());
+    }
+}
@@ -0,0 +1,91 @@
+package server.interaction;
+
+import commons.elements.Worker;
+import commons.utils.Storage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import server.utils.WorkerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZonedDateTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class StorageInteractionTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private StorageInteraction storage;
+
+    @Before
+    public void setUp() {
+        assumeTrue("model constructors are not available", WorkerFactory.isAvailable());
+        System.setProperty("server.snapshot.file", folder.getRoot().toPath().resolve("snapshot.csv").toString());
+        storage = new StorageInteraction(new Storage());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("server.snapshot.file");
+        if (storage != null)
+            storage.close();
+    }
+
+    @Test
+    public void findByIdSeesChangesBeforeTheSnapshotIsRebuilt() {
+        storage.snapshot();
+        Worker worker = worker("first", 100);
+        storage.add(worker);
+        long id = worker.getId();
+        assertTrue(storage.findById(id));
+        storage.update(id, worker("second", 200));
+        assertTrue(storage.findById(id));
+        storage.removeById(id);
+        assertFalse(storage.findById(id));
+    }
+
+    @Test
+    public void findByIdIsAnsweredWhileAReaderHoldsAnOldSnapshot() {
+        Worker worker = worker("first", 100);
+        storage.add(worker);
+        CollectionSnapshot old = storage.snapshot();
+        storage.removeById(worker.getId());
+        assertFalse(storage.findById(worker.getId()));
+        assertTrue(old.getWorkers().contains(worker));
+    }
+
+    @Test
+    public void changeIsUndoneAndLaterChangesRejectedWhenTheJournalFails() throws IOException {
+        Path full = Paths.get("/dev/full");
+        assumeTrue("/dev/full is not available", Files.isWritable(full));
+        storage.attachJournal(new MutationJournal(full, MutationJournal.FsyncPolicy.ALWAYS, 10), false);
+        Worker worker = worker("lost", 100);
+        try {
+            storage.add(worker);
+            fail("change was applied although the journal failed");
+        } catch (UncheckedIOException expected) {
+            assertFalse(storage.findById(worker.getId()));
+        }
+        try {
+            storage.add(worker("next", 200));
+            fail("failed journal accepted a change");
+        } catch (UncheckedIOException expected) {
+            assertEquals(0, storage.snapshot().size());
+        }
+    }
+
+    static Worker worker(String name, int salary) {
+        return WorkerFactory.create(0, name, 1, 2, salary, null, ZonedDateTime.now(), null, null,
+                null, null, null, null, null);
+    }
+}
@@ -0,0 +1,116 @@
+package server.interaction;
+
+import commons.elements.Worker;
+import commons.utils.Storage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import server.utils.WorkerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+public class WorkerQueryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private StorageInteraction storage;
+
+    @Before
+    public void setUp() {
+        assumeTrue("model constructors are not available", WorkerFactory.isAvailable());
+        System.setProperty("server.snapshot.file", folder.getRoot().toPath().resolve("snapshot.csv").toString());
+        storage = new StorageInteraction(new Storage());
+        int[] salaries = {500, 100, 300, 300, 200, 400, 300};
+        for (int i = 0; i < salaries.length; i++)
+            storage.add(StorageInteractionTest.worker("w" + i, salaries[i]));
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("server.snapshot.file");
+        if (storage != null)
+            storage.close();
+    }
+
+    @Test
+    public void cursorsWalkTheSalaryIndexInBothDirections() {
+        assertEquals(listOf(100, 200, 300, 300, 300, 400, 500), salaries("sort=salary"));
+        assertEquals(listOf(500, 400, 300, 300, 300, 200, 100), salaries("sort=-salary"));
+    }
+
+    @Test
+    public void cursorsWalkTheSnapshotInBothDirections() {
+        assertEquals(listOf("w0", "w1", "w2", "w3", "w4", "w5", "w6"), names("sort=name"));
+        assertEquals(listOf("w6", "w5", "w4", "w3", "w2", "w1", "w0"), names("sort=-name"));
+    }
+
+    @Test
+    public void rangeStopsThePage() {
+        assertEquals(listOf(200, 300, 300, 300), salaries("salary=200..300; sort=salary"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cursorOfTheOppositeDirectionIsRejected() {
+        String cursor = storage.query(WorkerQuery.parse("sort=salary; limit=2")).getNextCursor();
+        WorkerQuery.parse("sort=-salary; limit=2; after=" + cursor);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cursorOfAnotherFieldIsRejected() {
+        String cursor = storage.query(WorkerQuery.parse("sort=salary; limit=2")).getNextCursor();
+        WorkerQuery.parse("sort=name; limit=2; after=" + cursor);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedCursorIsRejected() {
+        WorkerQuery.parse("after=not-a-cursor");
+    }
+
+    @Test
+    public void lastPageHasNoCursor() {
+        assertNull(storage.query(WorkerQuery.parse("limit=100")).getNextCursor());
+    }
+
+    private List<Integer> salaries(String query) {
+        List<Integer> result = new ArrayList<>();
+        for (Worker worker : all(query))
+            result.add(worker.getSalary());
+        return result;
+    }
+
+    private List<String> names(String query) {
+        List<String> result = new ArrayList<>();
+        for (Worker worker : all(query))
+            result.add(worker.getName());
+        return result;
+    }
+
+    /**
+     * Читает все страницы по две записи, переходя по курсорам.
+     */
+    private List<Worker> all(String query) {
+        List<Worker> result = new ArrayList<>();
+        String cursor = null;
+        do {
+            WorkerQuery.Page page = storage.query(WorkerQuery.parse(query + "; limit=2"
+                    + (cursor == null ? "" : "; after=" + cursor)));
+            result.addAll(page.getWorkers());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return result;
+    }
+
+    @SafeVarargs
+    private static <T> List<T> listOf(T... values) {
+        List<T> result = new ArrayList<>();
+        for (T value : values)
+            result.add(value);
+        return result;
+    }
+}
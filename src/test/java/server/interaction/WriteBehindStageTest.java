@@ -0,0 +1,192 @@
+package server.interaction;
+
+import commons.app.User;
+import commons.elements.Worker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.utils.CommonsObjects;
+import server.utils.WorkerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class WriteBehindStageTest {
+    private static final long TIMEOUT = 5000;
+    private FakeSink sink;
+    private WriteBehindStage stage;
+    private User alice;
+    private User bob;
+
+    /**
+     * Получатель, записывающий вызовы; может отклонять изменения, выбрасывать исключение и ждать разрешения.
+     */
+    private static final class FakeSink implements MutationSink {
+        private final List<String> calls = new ArrayList<>();
+        private final Set<Long> rejectedIds = new HashSet<>();
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+        private volatile String failOnce;
+
+        @Override
+        public boolean add(Worker worker, User user) throws Exception {
+            return call("add " + worker.getName(), true);
+        }
+
+        @Override
+        public boolean update(long id, Worker worker, User user) throws Exception {
+            return call("update " + id + " " + worker.getName(), !rejectedIds.contains(id));
+        }
+
+        @Override
+        public boolean remove(long id, User user) throws Exception {
+            return call("remove " + id, !rejectedIds.contains(id));
+        }
+
+        @Override
+        public boolean clear(User user) throws Exception {
+            return call("clear", true);
+        }
+
+        private boolean call(String call, boolean result) throws Exception {
+            gate.await();
+            synchronized (calls) {
+                calls.add(call);
+            }
+            if (call.equals(failOnce)) {
+                failOnce = null;
+                throw new Exception("connection lost after " + call);
+            }
+            return result;
+        }
+
+        private List<String> calls() {
+            synchronized (calls) {
+                return new ArrayList<>(calls);
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        assumeTrue("model constructors are not available", WorkerFactory.isAvailable()
+                && CommonsObjects.supports(User.class, "login", "password"));
+        sink = new FakeSink();
+        alice = CommonsObjects.user("alice", "a");
+        bob = CommonsObjects.user("bob", "b");
+    }
+
+    @After
+    public void tearDown() {
+        sink.gate.countDown();
+        if (stage != null)
+            stage.close();
+    }
+
+    @Test
+    public void transactionCoalescesUpdatesButNotAdds() {
+        stage = new WriteBehindStage(sink, WriteBehindStage.Mode.SYNC, 100, 1000, 5);
+        stage.begin();
+        stage.add(worker(0, "first"), alice);
+        stage.add(worker(0, "second"), alice);
+        stage.update(5, worker(5, "old"), alice);
+        stage.update(5, worker(5, "new"), alice);
+        assertTrue(stage.awaitCommitted(stage.commit(), TIMEOUT));
+        assertEquals(Arrays.asList("add first", "add second", "update 5 new"), sink.calls());
+    }
+
+    @Test
+    public void clearKeepsLaterChangesAfterIt() {
+        stage = new WriteBehindStage(sink, WriteBehindStage.Mode.SYNC, 100, 1000, 5);
+        stage.begin();
+        stage.update(5, worker(5, "before"), alice);
+        stage.clear(alice);
+        stage.update(5, worker(5, "after"), alice);
+        stage.remove(6, alice);
+        assertTrue(stage.awaitCommitted(stage.commit(), TIMEOUT));
+        assertEquals(Arrays.asList("update 5 before", "clear", "update 5 after", "remove 6"), sink.calls());
+    }
+
+    @Test
+    public void rejectedChangeReportsItsOwnResult() {
+        stage = new WriteBehindStage(sink, WriteBehindStage.Mode.SYNC, 100, 1000, 5);
+        sink.rejectedIds.add(9L);
+        assertFalse(stage.awaitCommitted(stage.update(9, worker(9, "foreign"), alice), TIMEOUT));
+        assertTrue(stage.awaitCommitted(stage.update(5, worker(5, "own"), alice), TIMEOUT));
+        stage.begin();
+        stage.update(5, worker(5, "own"), alice);
+        stage.remove(9, alice);
+        assertFalse(stage.awaitCommitted(stage.commit(), TIMEOUT));
+    }
+
+    @Test
+    public void syncWaitGivesUpAfterTheTimeout() {
+        stage = new WriteBehindStage(sink, WriteBehindStage.Mode.SYNC, 100, 1000, 5);
+        sink.gate = new CountDownLatch(1);
+        long ticket = stage.update(5, worker(5, "slow"), alice);
+        assertFalse(stage.awaitCommitted(ticket, 50));
+        sink.gate.countDown();
+        assertTrue(stage.awaitCommitted(stage.remove(6, alice), TIMEOUT));
+        assertEquals(Arrays.asList("update 5 slow", "remove 6"), sink.calls());
+    }
+
+    @Test
+    public void rolledBackTransactionNeverReachesTheSink() {
+        stage = new WriteBehindStage(sink, WriteBehindStage.Mode.SYNC, 100, 1000, 5);
+        stage.begin();
+        stage.update(5, worker(5, "discarded"), alice);
+        stage.clear(alice);
+        stage.rollback();
+        assertTrue(stage.awaitCommitted(stage.remove(6, alice), TIMEOUT));
+        assertEquals(Arrays.asList("remove 6"), sink.calls());
+    }
+
+    @Test
+    public void asyncWaitsForTheDatabaseUntilTheOwnerIsKnown() {
+        stage = new WriteBehindStage(sink, WriteBehindStage.Mode.ASYNC, 100, 1000, 5);
+        sink.rejectedIds.add(9L);
+        assertFalse(stage.awaitCommitted(stage.update(9, worker(9, "foreign"), alice), TIMEOUT));
+        assertTrue(stage.awaitCommitted(stage.update(5, worker(5, "first"), alice), TIMEOUT));
+        sink.gate = new CountDownLatch(1);
+        assertTrue("known owner is acknowledged without a database round trip",
+                stage.awaitCommitted(stage.update(5, worker(5, "second"), alice), 50));
+        assertFalse("another user still waits for the database",
+                stage.awaitCommitted(stage.update(5, worker(5, "third"), bob), 50));
+    }
+
+    @Test
+    public void asyncAcknowledgesChangesToAQueuedAdd() {
+        stage = new WriteBehindStage(sink, WriteBehindStage.Mode.ASYNC, 100, 1000, 60000);
+        Worker added = worker(0, "added");
+        assertTrue(stage.awaitCommitted(stage.add(added, alice), 50));
+        added.setId(12);
+        assertTrue(stage.awaitCommitted(stage.update(12, worker(12, "changed"), alice), 50));
+        assertTrue(sink.calls().isEmpty());
+    }
+
+    @Test
+    public void retriedChangesAreIdempotent() {
+        stage = new WriteBehindStage(sink, WriteBehindStage.Mode.SYNC, 100, 1000, 5);
+        sink.failOnce = "add landed";
+        assertTrue(stage.awaitCommitted(stage.add(worker(12, "landed"), alice), TIMEOUT));
+        assertEquals(Arrays.asList("add landed", "update 12 landed"), sink.calls());
+        sink.rejectedIds.add(7L);
+        sink.failOnce = "remove 7";
+        assertTrue(stage.awaitCommitted(stage.remove(7, alice), TIMEOUT));
+        assertEquals(Arrays.asList("add landed", "update 12 landed", "remove 7", "remove 7"), sink.calls());
+    }
+
+    private static Worker worker(long id, String name) {
+        Worker worker = StorageInteractionTest.worker(name, 100);
+        worker.setId(id);
+        return worker;
+    }
+}
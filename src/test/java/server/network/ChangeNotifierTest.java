@@ -0,0 +1,64 @@
+package server.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeNotifierTest {
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("127.0.0.1", 5000);
+    private final Set<String> validTokens = new HashSet<>();
+    private ScheduledExecutorService scheduler;
+    private ChangeNotifier notifier;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        notifier = new ChangeNotifier(version -> null, (payload, address, state) -> {
+        }, scheduler, validTokens::contains, 20, 60000);
+        validTokens.add("owner");
+        validTokens.add("intruder");
+        notifier.subscribe(CLIENT, new ClientState(), "owner", 0);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void onlyTheSubscribingSessionKeepsTheSubscriptionAlive() {
+        assertFalse(notifier.heartbeat(CLIENT, "intruder"));
+        assertFalse(notifier.heartbeat(CLIENT, null));
+        assertTrue(notifier.heartbeat(CLIENT, "owner"));
+    }
+
+    @Test
+    public void onlyTheSubscribingSessionCancelsTheSubscription() {
+        assertFalse(notifier.unsubscribe(CLIENT, "intruder"));
+        assertTrue(notifier.heartbeat(CLIENT, "owner"));
+        assertTrue(notifier.unsubscribe(CLIENT, "owner"));
+        assertFalse(notifier.heartbeat(CLIENT, "owner"));
+    }
+
+    @Test
+    public void subscriptionEndsWithItsSession() {
+        validTokens.remove("owner");
+        notifier.expire();
+        assertFalse(notifier.heartbeat(CLIENT, "owner"));
+    }
+
+    @Test
+    public void logoutRevokesTheSessionSubscriptions() {
+        notifier.revoke("owner");
+        assertFalse(notifier.heartbeat(CLIENT, "owner"));
+    }
+}
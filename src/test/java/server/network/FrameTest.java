@@ -0,0 +1,37 @@
+package server.network;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameTest {
+    @Test
+    public void tokenPrecedesTheRequest() throws IOException {
+        ByteBuffer message = ByteBuffer.allocate(64);
+        Frame.writeToken(message, "token-1");
+        message.put((byte) 42).flip();
+        assertEquals("token-1", Frame.readToken(message));
+        assertEquals(42, message.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedTokenIsRejected() throws IOException {
+        ByteBuffer message = ByteBuffer.allocate(64);
+        Frame.writeToken(message, "token-1");
+        message.flip().limit(4);
+        Frame.readToken(message);
+    }
+
+    @Test
+    public void codecIdIsKeptBesideTheTokenFlag() {
+        ByteBuffer datagram = ByteBuffer.allocate(Frame.HEADER_SIZE);
+        Frame.writeHeader(datagram, Frame.DATA, (byte) (Frame.TOKEN | 1), 7, 0, 1);
+        datagram.flip();
+        byte flags = Frame.peekFlags(datagram);
+        assertEquals(1, flags & Frame.CODEC_MASK);
+        assertEquals(Frame.TOKEN, flags & Frame.TOKEN);
+    }
+}
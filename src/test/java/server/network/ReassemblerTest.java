@@ -0,0 +1,125 @@
+package server.network;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ReassemblerTest {
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("127.0.0.1", 5000);
+    private static final InetSocketAddress OTHER = new InetSocketAddress("127.0.0.1", 5001);
+    private final AtomicInteger acks = new AtomicInteger();
+
+    @Test
+    public void fragmentsArrivingOutOfOrderAreJoined() {
+        Reassembler reassembler = new Reassembler(16, 4, 1 << 20);
+        byte[] message = message(Frame.MAX_PAYLOAD * 2 + 100);
+        assertNull(accept(reassembler, CLIENT, 1, message, 2));
+        assertNull(accept(reassembler, CLIENT, 1, message, 0));
+        PooledBuffer joined = accept(reassembler, CLIENT, 1, message, 1);
+        assertNotNull(joined);
+        byte[] bytes = new byte[joined.buffer().remaining()];
+        joined.buffer().get(bytes);
+        joined.release();
+        assertArrayEquals(message, bytes);
+        assertEquals(3, acks.get());
+        assertEquals(0, reassembler.getPartials());
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    @Test
+    public void duplicatesAreAcknowledgedButNotDeliveredAgain() {
+        Reassembler reassembler = new Reassembler(16, 4, 1 << 20);
+        byte[] message = message(Frame.MAX_PAYLOAD + 10);
+        assertNull(accept(reassembler, CLIENT, 1, message, 0));
+        assertNull(accept(reassembler, CLIENT, 1, message, 0));
+        accept(reassembler, CLIENT, 1, message, 1).release();
+        assertNull(accept(reassembler, CLIENT, 1, message, 1));
+        assertEquals(4, acks.get());
+    }
+
+    @Test
+    public void memoryFollowsReceivedFragments() {
+        Reassembler reassembler = new Reassembler(16, 4, 1 << 20);
+        byte[] message = message(Frame.MAX_PAYLOAD * (Reassembler.MAX_FRAGMENTS - 1) + 1);
+        assertNull(accept(reassembler, CLIENT, 1, message, Reassembler.MAX_FRAGMENTS - 1));
+        assertEquals(1, reassembler.getBufferedBytes());
+    }
+
+    @Test
+    public void partialsOfOneClientAreCapped() {
+        Reassembler reassembler = new Reassembler(16, 2, 1 << 20);
+        byte[] message = message(Frame.MAX_PAYLOAD + 1);
+        for (int id = 1; id <= 3; id++)
+            assertNull(accept(reassembler, CLIENT, id, message, 0));
+        assertEquals(2, acks.get());
+        assertEquals(1, reassembler.getDropped());
+        assertNull(accept(reassembler, OTHER, 1, message, 0));
+        assertEquals(3, reassembler.getPartials());
+        accept(reassembler, CLIENT, 1, message, 1).release();
+        assertNull(accept(reassembler, CLIENT, 3, message, 0));
+        assertEquals(3, reassembler.getPartials());
+    }
+
+    @Test
+    public void partialsOfAllClientsAreCapped() {
+        Reassembler reassembler = new Reassembler(2, 2, 1 << 20);
+        byte[] message = message(Frame.MAX_PAYLOAD + 1);
+        assertNull(accept(reassembler, CLIENT, 1, message, 0));
+        assertNull(accept(reassembler, OTHER, 1, message, 0));
+        assertNull(accept(reassembler, new InetSocketAddress("127.0.0.1", 5002), 1, message, 0));
+        assertEquals(2, reassembler.getPartials());
+        assertEquals(1, reassembler.getDropped());
+    }
+
+    @Test
+    public void bufferedBytesAreCappedWithoutAcknowledgement() {
+        Reassembler reassembler = new Reassembler(16, 4, Frame.MAX_PAYLOAD);
+        byte[] message = message(Frame.MAX_PAYLOAD * 2 + 1);
+        assertNull(accept(reassembler, CLIENT, 1, message, 0));
+        assertNull(accept(reassembler, CLIENT, 1, message, 1));
+        assertNull(accept(reassembler, OTHER, 1, message, 0));
+        assertEquals(1, acks.get());
+        assertEquals(2, reassembler.getDropped());
+        assertEquals(1, reassembler.getPartials());
+    }
+
+    @Test
+    public void expiredPartialsFreeTheirSlots() throws InterruptedException {
+        Reassembler reassembler = new Reassembler(16, 1, 1 << 20);
+        byte[] message = message(Frame.MAX_PAYLOAD + 1);
+        assertNull(accept(reassembler, CLIENT, 1, message, 0));
+        Thread.sleep(5);
+        reassembler.expire(1);
+        assertEquals(0, reassembler.getPartials());
+        assertEquals(0, reassembler.getBufferedBytes());
+        assertNull(accept(reassembler, CLIENT, 2, message, 0));
+        assertEquals(1, reassembler.getPartials());
+    }
+
+    private PooledBuffer accept(Reassembler reassembler, InetSocketAddress address, int messageId, byte[] message,
+                                int index) {
+        int count = (message.length + Frame.MAX_PAYLOAD - 1) / Frame.MAX_PAYLOAD;
+        int from = index * Frame.MAX_PAYLOAD;
+        byte[] payload = Arrays.copyOfRange(message, from, Math.min(message.length, from + Frame.MAX_PAYLOAD));
+        ByteBuffer datagram = ByteBuffer.allocate(Frame.HEADER_SIZE + payload.length);
+        Frame.writeHeader(datagram, Frame.DATA, (byte) 0, messageId, index, count);
+        datagram.put(payload).flip();
+        Frame frame = Frame.readHeader(datagram);
+        return reassembler.accept(address, frame, datagram, acks::incrementAndGet);
+    }
+
+    private static byte[] message(int length) {
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++)
+            message[i] = (byte) (i * 31);
+        return message;
+    }
+}
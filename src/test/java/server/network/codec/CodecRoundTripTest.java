@@ -0,0 +1,174 @@
+package server.network.codec;
+
+import commons.elements.OrganizationType;
+import commons.elements.Position;
+import commons.elements.Status;
+import commons.elements.Worker;
+import commons.network.Request;
+import commons.network.Response;
+import commons.network.ResponseCode;
+import commons.utils.SerializationTool;
+import org.junit.Before;
+import org.junit.Test;
+import server.network.PooledBuffer;
+import server.utils.CommonsObjects;
+import server.utils.WorkerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class CodecRoundTripTest {
+    private Worker worker;
+
+    @Before
+    public void setUp() {
+        assumeTrue("model constructors are not available", WorkerFactory.isAvailable()
+                && CommonsObjects.supports(Request.class, "name", "argument", null, null));
+        worker = WorkerFactory.create(42, "Ivan", -7, 12, 5000, LocalDate.of(2030, 1, 15),
+                ZonedDateTime.of(2021, 3, 4, 5, 6, 7, 0, ZoneId.of("UTC")), Position.values()[0],
+                Status.values()[0], "Acme", OrganizationType.values()[0], 1000000, "Main street", "190000");
+    }
+
+    @Test
+    public void binaryRequestWithWorker() throws IOException {
+        Request request = roundTrip(Codecs.BINARY, "add", null, worker, "login", "password");
+        assertEquals("add", request.getCommandName());
+        assertNull(request.getCommandStringArgument());
+        assertWorker(worker, (Worker) request.getCommandObjectArgument());
+    }
+
+    @Test
+    public void javaRequestWithWorker() throws IOException {
+        Request request = roundTrip(Codecs.JAVA, "update", "42", worker, "login", "password");
+        assertEquals("update", request.getCommandName());
+        assertEquals("42", request.getCommandStringArgument());
+        assertWorker(worker, (Worker) request.getCommandObjectArgument());
+    }
+
+    @Test
+    public void binaryBatchKeepsOrder() throws IOException {
+        ArrayList<Request> batch = new ArrayList<>(Arrays.asList(
+                CommonsObjects.request("add", null, worker, null),
+                CommonsObjects.request("remove_by_id", "42", null, null),
+                CommonsObjects.request("show", "", null, null)));
+        Request request = roundTrip(Codecs.BINARY, "batch", "atomic", batch, "login", "password");
+        List<?> decoded = (List<?>) request.getCommandObjectArgument();
+        assertEquals(3, decoded.size());
+        assertWorker(worker, (Worker) ((Request) decoded.get(0)).getCommandObjectArgument());
+        assertEquals("remove_by_id", ((Request) decoded.get(1)).getCommandName());
+        assertEquals("42", ((Request) decoded.get(1)).getCommandStringArgument());
+        assertEquals("", ((Request) decoded.get(2)).getCommandStringArgument());
+    }
+
+    @Test
+    public void binaryDecoderAcceptsJavaSerializedRequests() throws IOException {
+        PooledBuffer encoded = Codecs.JAVA.encodeRequest("show", null, null, "login", "password");
+        try {
+            assertEquals("show", Codecs.BINARY.decodeRequest(encoded.buffer()).getCommandName());
+        } finally {
+            encoded.release();
+        }
+    }
+
+    @Test
+    public void binaryResponse() throws IOException {
+        Response decoded = roundTrip(Codecs.BINARY, response());
+        assertEquals(ResponseCode.OK, decoded.getResponseCode());
+        assertEquals("Коллекция", decoded.getResponseBody());
+        assertArrayEquals(new String[]{"a", null, ""}, decoded.getResponseBodyArgs());
+        assertEquals(1, decoded.getWorkers().size());
+        assertWorker(worker, decoded.getWorkers().iterator().next());
+    }
+
+    @Test
+    public void javaResponse() throws IOException {
+        Response decoded = roundTrip(Codecs.JAVA, response());
+        assertEquals(ResponseCode.OK, decoded.getResponseCode());
+        assertArrayEquals(new String[]{"a", null, ""}, decoded.getResponseBodyArgs());
+        assertWorker(worker, decoded.getWorkers().iterator().next());
+    }
+
+    @Test
+    public void binaryResponseWithoutWorkers() throws IOException {
+        Response response = new Response();
+        response.setResponseCode(ResponseCode.ERROR);
+        Response decoded = roundTrip(Codecs.BINARY, response);
+        assertEquals(ResponseCode.ERROR, decoded.getResponseCode());
+        assertNull(decoded.getResponseBody());
+        assertNull(decoded.getResponseBodyArgs());
+        assertTrue(decoded.getWorkers().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedBinaryRequestIsRejected() throws IOException {
+        PooledBuffer encoded = Codecs.BINARY.encodeRequest("add", null, worker, "login", "password");
+        try {
+            ByteBuffer buffer = encoded.buffer();
+            buffer.limit(buffer.limit() - 3);
+            Codecs.BINARY.decodeRequest(buffer);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void javaDecoderRejectsForeignClasses() throws IOException {
+        Codecs.JAVA.decodeRequest(ByteBuffer.wrap(SerializationTool.serializeObject(new Date())));
+    }
+
+    private Response response() {
+        Response response = new Response();
+        response.setResponseCode(ResponseCode.OK);
+        response.setResponseBody("Коллекция");
+        response.setResponseBodyArgs(new String[]{"a", null, ""});
+        response.setWorkers(new HashSet<>(Collections.singleton(worker)));
+        return response;
+    }
+
+    private static Request roundTrip(MessageCodec codec, String name, String argument, java.io.Serializable object,
+                                     String login, String password) throws IOException {
+        PooledBuffer encoded = codec.encodeRequest(name, argument, object, login, password);
+        try {
+            return codec.decodeRequest(encoded.buffer());
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private static Response roundTrip(MessageCodec codec, Response response) throws IOException {
+        PooledBuffer encoded = codec.encodeResponse(response);
+        try {
+            return codec.decodeResponse(encoded.buffer());
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private static void assertWorker(Worker expected, Worker actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getCoordinateX(), actual.getCoordinateX());
+        assertEquals(expected.getCoordinateY(), actual.getCoordinateY());
+        assertEquals(expected.getSalary(), actual.getSalary());
+        assertEquals(expected.getEndDateString(), actual.getEndDateString());
+        assertEquals(expected.getCreationDateString(), actual.getCreationDateString());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getOrganizationNameString(), actual.getOrganizationNameString());
+        assertEquals(expected.getAddressZipCode(), actual.getAddressZipCode());
+    }
+}
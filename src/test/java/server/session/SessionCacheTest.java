@@ -0,0 +1,59 @@
+package server.session;
+
+import commons.app.User;
+import org.junit.Before;
+import org.junit.Test;
+import server.utils.CommonsObjects;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class SessionCacheTest {
+    private SessionCache sessions;
+
+    @Before
+    public void setUp() {
+        assumeTrue("user constructor is not available", CommonsObjects.supports(User.class, "login", "password"));
+        sessions = new SessionCache(2, 60000);
+    }
+
+    @Test
+    public void tokenFindsTheSessionUntilItIsClosed() {
+        SessionCache.Session session = sessions.open(CommonsObjects.user("alice", "secret"));
+        assertSame(session, sessions.lookup(session.getToken()));
+        assertNull(sessions.lookup("forged-token"));
+        assertTrue(sessions.isValid(session.getToken()));
+        assertTrue(sessions.close(session.getToken()));
+        assertFalse(sessions.isValid(session.getToken()));
+        assertNull(sessions.lookup(session.getToken()));
+        assertFalse(sessions.close(session.getToken()));
+    }
+
+    @Test
+    public void credentialsMustMatchToFindASessionWithoutAToken() {
+        SessionCache.Session session = sessions.open(CommonsObjects.user("alice", "secret"));
+        assertSame(session, sessions.lookup(CommonsObjects.user("alice", "secret")));
+        assertNull(sessions.lookup(CommonsObjects.user("alice", "guess")));
+    }
+
+    @Test
+    public void reopeningRevokesThePreviousToken() {
+        SessionCache.Session first = sessions.open(CommonsObjects.user("alice", "secret"));
+        SessionCache.Session second = sessions.open(CommonsObjects.user("alice", "secret"));
+        assertNull(sessions.lookup(first.getToken()));
+        assertSame(second, sessions.lookup(second.getToken()));
+    }
+
+    @Test
+    public void leastRecentlyUsedSessionIsEvicted() {
+        SessionCache.Session alice = sessions.open(CommonsObjects.user("alice", "a"));
+        SessionCache.Session bob = sessions.open(CommonsObjects.user("bob", "b"));
+        sessions.lookup(alice.getToken());
+        sessions.open(CommonsObjects.user("carol", "c"));
+        assertSame(alice, sessions.lookup(alice.getToken()));
+        assertNull(sessions.lookup(bob.getToken()));
+    }
+}
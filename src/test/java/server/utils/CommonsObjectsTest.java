@@ -0,0 +1,39 @@
+package server.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommonsObjectsTest {
+    @Test
+    public void matchesConstructorByArgumentTypes() {
+        assertEquals("abc", CommonsObjects.create(StringBuilder.class, "abc").toString());
+        assertTrue(CommonsObjects.create(ArrayList.class, 16).isEmpty());
+    }
+
+    @Test
+    public void nullMatchesOnlyReferenceParameters() {
+        assertTrue(CommonsObjects.supports(ArrayList.class, (Object) null));
+        assertFalse(CommonsObjects.supports(Integer.class, new Object[]{null, null}));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void missingConstructorIsReported() {
+        CommonsObjects.create(StringBuilder.class, 1L, 2L);
+    }
+
+    @Test
+    public void constructorFailureKeepsItsCause() {
+        try {
+            CommonsObjects.create(ArrayList.class, -1);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+}
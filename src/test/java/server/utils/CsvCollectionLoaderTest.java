@@ -0,0 +1,121 @@
+package server.utils;
+
+import commons.elements.OrganizationType;
+import commons.elements.Position;
+import commons.elements.Status;
+import commons.elements.Worker;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class CsvCollectionLoaderTest {
+    private static final String HEADER = "id,name,x,y,salary,endDate,creationDate,position,status,organization,"
+            + "organizationType,annualTurnover,street,zipCode";
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        assumeTrue("model constructors are not available", WorkerFactory.isAvailable());
+    }
+
+    /**
+     * Маленькие куски заставляют строки попадать на границы кусков.
+     */
+    @Test
+    public void everyRowIsLoadedWhateverTheChunkSize() throws IOException {
+        StringBuilder csv = new StringBuilder(HEADER).append('\n');
+        for (int id = 1; id <= 200; id++)
+            csv.append(row(id, "worker" + id)).append(id % 3 == 0 ? "\r\n" : "\n");
+        Path file = write(csv.toString());
+        for (int chunkSize : new int[]{1, 97, 1 << 20}) {
+            CsvCollectionLoader.Result result = new CsvCollectionLoader(file, ',', chunkSize).load(ForkJoinPool.commonPool());
+            assertEquals("chunk size " + chunkSize, Arrays.asList(), result.getErrors());
+            assertEquals(200, result.getWorkers().size());
+            assertEquals(201, result.getLines());
+            Map<Long, Worker> byId = byId(result);
+            assertEquals("worker137", byId.get(137L).getName());
+            assertEquals(Integer.valueOf(237), byId.get(137L).getSalary());
+        }
+    }
+
+    @Test
+    public void fieldsAreParsedFromBytesAndQuotedRows() throws IOException {
+        Path file = write(HEADER + "\n" + row(1, "plain") + "\n" + row(2, "\"quoted, with comma\"") + "\n"
+                + "3,sparse,-5,,,,,,,,,,,\n");
+        CsvCollectionLoader.Result result = new CsvCollectionLoader(file, ',').load(ForkJoinPool.commonPool());
+        assertEquals(Arrays.asList(), result.getErrors());
+        Map<Long, Worker> byId = byId(result);
+        Worker plain = byId.get(1L);
+        assertEquals(-7, plain.getCoordinateX());
+        assertEquals(Integer.valueOf(3), plain.getCoordinateY());
+        assertEquals("2030-01-31", plain.getEndDateString());
+        assertEquals(2021, plain.getCreationDate().getYear());
+        assertEquals(ZoneOffset.UTC, plain.getCreationDate().getOffset());
+        assertEquals(Position.values()[0], plain.getPosition());
+        assertEquals(Status.values()[0], plain.getStatus());
+        assertEquals("street 1", plain.getAddressStreet());
+        assertEquals("quoted, with comma", byId.get(2L).getName());
+        Worker sparse = byId.get(3L);
+        assertEquals(-5, sparse.getCoordinateX());
+        assertNull(sparse.getSalary());
+        assertNull(sparse.getEndDateString());
+        assertNull(sparse.getPosition());
+        assertNull(sparse.getStatus());
+    }
+
+    @Test
+    public void badRowsAreSkippedAndReportedWithLineNumbers() throws IOException {
+        Path file = write(HEADER + "\n" + row(1, "good") + "\n" + "2,short,1\n" + row(3, "good").replace(",7,", ",x7,")
+                + "\n" + "\n" + row(5, "good").replace(Status.values()[0].name(), "UNKNOWN") + "\n" + row(6, "good") + "\n");
+        CsvCollectionLoader.Result result = new CsvCollectionLoader(file, ',', 40).load(ForkJoinPool.commonPool());
+        assertEquals(2, result.getWorkers().size());
+        assertEquals(3, result.getErrors().size());
+        assertTrue(result.getErrors().get(0), result.getErrors().get(0).startsWith("line 3: expected 14 fields"));
+        assertTrue(result.getErrors().get(1), result.getErrors().get(1).startsWith("line 4: "));
+        assertTrue(result.getErrors().get(2), result.getErrors().get(2).startsWith("line 6: unknown status"));
+    }
+
+    @Test
+    public void fileWithoutHeaderStartsAtTheFirstLine() throws IOException {
+        Path file = write(row(1, "first") + "\n" + "broken\n");
+        CsvCollectionLoader.Result result = new CsvCollectionLoader(file, ',').load(ForkJoinPool.commonPool());
+        assertEquals(1, result.getWorkers().size());
+        assertEquals(Arrays.asList("line 2: expected 14 fields, found 1"), result.getErrors());
+    }
+
+    private static String row(long id, String name) {
+        return id + "," + name + ",-7,3," + (100 + id) + ",2030-01-31,05/17/2021 - 10:20:30 Z,"
+                + Position.values()[0].name() + "," + Status.values()[0].name() + ",org " + id + ","
+                + OrganizationType.values()[0].name() + ",7,street " + id + ",12345" + id;
+    }
+
+    private Path write(String csv) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, csv.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static Map<Long, Worker> byId(CsvCollectionLoader.Result result) {
+        Map<Long, Worker> byId = new HashMap<>();
+        for (Worker worker : result.getWorkers())
+            byId.put(worker.getId(), worker);
+        return byId;
+    }
+}
@@ -0,0 +1,101 @@
+package server.utils;
+
+import commons.app.User;
+import commons.elements.Worker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.interaction.WriteBehindStage;
+
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class WriteBehindDataBaseCenterTest {
+    private FakeDataBaseCenter database;
+    private User user;
+
+    /**
+     * База данных, которая принимает только объекты с четным ID и считает обращения к себе.
+     */
+    private static final class FakeDataBaseCenter extends WriteBehindDataBaseCenter {
+        private final AtomicInteger writes = new AtomicInteger();
+
+        private FakeDataBaseCenter(WriteBehindStage.Mode mode) {
+            super(mode, 100, 1000, 5, 5000);
+        }
+
+        @Override
+        public boolean add(Worker worker, User user) {
+            writes.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public boolean update(long id, Worker worker, User user) {
+            writes.incrementAndGet();
+            return id % 2 == 0;
+        }
+
+        @Override
+        public boolean remove(long id, User user) {
+            writes.incrementAndGet();
+            return id % 2 == 0;
+        }
+
+        @Override
+        public boolean clear(User user) {
+            writes.incrementAndGet();
+            return true;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        assumeTrue("model constructors are not available", WorkerFactory.isAvailable()
+                && CommonsObjects.supports(User.class, "login", "password"));
+        user = CommonsObjects.user("login", "password");
+    }
+
+    @After
+    public void tearDown() {
+        if (database != null)
+            database.close();
+    }
+
+    @Test
+    public void commandsSeeTheDatabaseAnswer() {
+        database = new FakeDataBaseCenter(WriteBehindStage.Mode.SYNC);
+        assertTrue(database.updateWorker(2, worker(2), user));
+        assertFalse(database.updateWorker(3, worker(3), user));
+        assertFalse(database.removeWorker(5, user));
+        assertTrue(database.addWorker(worker(0), user));
+        assertEquals(4, database.writes.get());
+    }
+
+    @Test
+    public void asyncModeChecksUnknownObjectsWithTheDatabase() {
+        database = new FakeDataBaseCenter(WriteBehindStage.Mode.ASYNC);
+        assertFalse(database.updateWorker(3, worker(3), user));
+        assertTrue(database.updateWorker(2, worker(2), user));
+        assertEquals(2, database.writes.get());
+    }
+
+    @Test
+    public void transactionResultIncludesRejectedChanges() {
+        database = new FakeDataBaseCenter(WriteBehindStage.Mode.ASYNC);
+        database.begin();
+        assertTrue(database.updateWorker(2, worker(2), user));
+        assertTrue(database.removeWorker(3, user));
+        assertFalse(database.awaitWritten(database.commit()));
+    }
+
+    private static Worker worker(long id) {
+        return WorkerFactory.create(id, "worker" + id, 1, 2, 100, null, ZonedDateTime.now(), null, null,
+                null, null, null, null, null);
+    }
+}